@@ -0,0 +1,69 @@
+package org.example.pvdtime.client;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.DrawContext;
+import org.example.pvdtime.PlaytimeHudPayload;
+import org.example.pvdtime.PlaytimeViews;
+
+// HUD с временем игрока за неделю: собирает состояние из пакетов сервера и рисует его в углу экрана.
+// Строки пересобираются только при получении пакета, на кадре - только отрисовка.
+public class PlaytimeHudOverlay {
+
+    private static final int X = 4;
+    private static final int Y = 4;
+    private static final int BAR_WIDTH = 100;
+
+    private boolean received;   // сервер без мода ничего не присылает - тогда HUD не рисуется
+    private int minutes;
+    private int requiredMinutes;
+    private int rank;
+    private boolean pvd;
+    private String timeLine;
+    private String rankLine;
+
+    // Вызывается в потоке клиента
+    public void apply(PlaytimeHudPayload payload) {
+        if (payload.has(PlaytimeHudPayload.FULL)) {
+            minutes = payload.minutes();
+        } else if (payload.has(PlaytimeHudPayload.MINUTES)) {
+            minutes += payload.minutes();
+        }
+        if (payload.has(PlaytimeHudPayload.REQUIRED)) {
+            requiredMinutes = payload.requiredMinutes();
+        }
+        if (payload.has(PlaytimeHudPayload.RANK)) {
+            rank = payload.rank();
+        }
+        pvd = payload.has(PlaytimeHudPayload.PVD);
+        received = true;
+
+        timeLine = pvd
+                ? "§bPVD §7" + PlaytimeViews.formatMinutes(minutes)
+                : "§6PVD: §e" + PlaytimeViews.formatMinutes(minutes) + " §7/ " + PlaytimeViews.formatMinutes(requiredMinutes);
+        rankLine = rank > 0 ? "§7Место: §e" + rank : null;
+    }
+
+    public void reset() {
+        received = false;
+    }
+
+    public void render(DrawContext context) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (!received || client.options.hudHidden) {
+            return;
+        }
+        int y = Y;
+        context.drawTextWithShadow(client.textRenderer, timeLine, X, y, 0xFFFFFFFF);
+        y += client.textRenderer.fontHeight + 1;
+
+        // Полоса прогресса до порога
+        int filled = pvd || requiredMinutes <= 0 ? BAR_WIDTH : (int) Math.min(BAR_WIDTH, (long) minutes * BAR_WIDTH / requiredMinutes);
+        context.fill(X, y, X + BAR_WIDTH, y + 2, 0x80000000);
+        context.fill(X, y, X + filled, y + 2, pvd ? 0xFF55FFFF : 0xFF55FF55);
+        y += 4;
+
+        if (rankLine != null) {
+            context.drawTextWithShadow(client.textRenderer, rankLine, X, y, 0xFFFFFFFF);
+        }
+    }
+}
@@ -1,10 +1,20 @@
 package org.example.pvdtime.client;
 
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
+import org.example.pvdtime.PlaytimeHudPayload;
 
 public class PvdtimeClient implements ClientModInitializer {
 
+    private final PlaytimeHudOverlay hud = new PlaytimeHudOverlay();
+
     @Override
     public void onInitializeClient() {
+        // Тип пакета зарегистрирован в PvdTime (общая точка входа), здесь только прием
+        ClientPlayNetworking.registerGlobalReceiver(PlaytimeHudPayload.ID, (payload, context) -> hud.apply(payload));
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> hud.reset());
+        HudRenderCallback.EVENT.register((context, tickCounter) -> hud.render(context));
     }
 }
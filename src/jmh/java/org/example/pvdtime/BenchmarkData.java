@@ -0,0 +1,50 @@
+package org.example.pvdtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+// Общие данные для бенчмарков: хранилище на players игроков с таблицей лидеров и онлайн-сессиями.
+// Распределение времени похоже на живой сервер: большинство игроков наиграли немного, единицы - десятки часов.
+final class BenchmarkData {
+
+    static final String WEEK = "2025-W10";
+
+    final PlaytimeStore store = new PlaytimeStore(WEEK);
+    final Leaderboard leaderboard = new Leaderboard();
+    final SessionTracker sessions;
+    final AfkTracker afk;
+    final List<PlayerRecord> online = new ArrayList<>();
+    long tick;
+
+    BenchmarkData(int players, int onlinePlayers) {
+        Random random = new Random(42);
+        for (int i = 0; i < players; i++) {
+            PlayerRecord record = store.getOrCreate(new UUID(random.nextLong(), random.nextLong()), "player_" + i);
+            long seconds = (long) (Math.pow(random.nextDouble(), 3) * 40 * 3600);
+            if (seconds > 0) {
+                store.setSeconds(record, seconds);
+            }
+            if (seconds >= 3 * 3600) {
+                store.setPvd(record, true);
+            }
+        }
+
+        // Таблица строится один раз целиком, как при загрузке мода
+        leaderboard.rebuild(store);
+        store.addListener(leaderboard);
+
+        sessions = new SessionTracker(store, 60 * SessionTracker.TICKS_PER_SECOND);
+        afk = new AfkTracker((uuid, isAfk, t) -> sessions.setAfk(uuid, isAfk, t), true, 5);
+        int count = Math.min(onlinePlayers, players);
+        for (int i = 0; i < count; i++) {
+            String name = "player_" + (long) i * players / count;
+            PlayerRecord record = store.getByName(name);
+            sessions.join(record.getUuid(), record.getName(), tick);
+            afk.join(record.getUuid(), 0, 0, tick);
+            online.add(record);
+            tick++;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.pvdtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Построение текста команд pvd list: страницы, топ, active и list last из архива (целиком - снимок и текст)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ListBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int players;
+
+    private BenchmarkData data;
+    private Path directory;
+    private WeekArchive archive;
+    private int lastPage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = new BenchmarkData(players, 0);
+        lastPage = PlaytimeViews.pageCount(data.leaderboard);
+        directory = Files.createTempDirectory("pvdtime-jmh");
+        archive = new WeekArchive(directory, 16);
+        archive.write(data.store.snapshot());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        PersistenceBenchmark.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public String listFirstPage() {
+        return PlaytimeViews.leaderboardPage(data.leaderboard, 1);
+    }
+
+    @Benchmark
+    public String listLastPage() {
+        return PlaytimeViews.leaderboardPage(data.leaderboard, lastPage);
+    }
+
+    @Benchmark
+    public String listTop() {
+        return PlaytimeViews.top(data.leaderboard, 100);
+    }
+
+    @Benchmark
+    public String listActive() {
+        return PlaytimeViews.active(data.leaderboard);
+    }
+
+    // Часть pvd list active, которая остается на тике: снимок строк без сборки текста
+    @Benchmark
+    public Object listActiveSnapshot() {
+        return PlaytimeViews.activeSnapshot(data.leaderboard);
+    }
+
+    @Benchmark
+    public String listLast() throws IOException {
+        return PlaytimeViews.archivedWeek(archive.get(BenchmarkData.WEEK), "§6Время игроков за прошлую неделю:");
+    }
+
+    @Benchmark
+    public int rank() {
+        return data.leaderboard.rankOf(data.store.getByName("player_" + (players / 2)));
+    }
+}
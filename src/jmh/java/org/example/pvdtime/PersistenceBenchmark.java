@@ -0,0 +1,145 @@
+package org.example.pvdtime;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Сохранение и загрузка: снимок на тике, сериализация lastlog в потоке записи,
+// разбор lastlog при запуске (дерево JSON, потоковый JSON, бинарный) и запись бинарного архива недели
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int players;
+
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private BenchmarkData data;
+    private PlaytimeSnapshot snapshot;
+    private String json;
+    private Path binaryFile;
+    private Path directory;
+    private WeekArchive archive;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = new BenchmarkData(players, 0);
+        snapshot = data.store.snapshot();
+        json = gson.toJson(snapshot.toJson());
+        directory = Files.createTempDirectory("pvdtime-jmh");
+        binaryFile = directory.resolve("lastlog.bin");
+        PlaytimeWriter.writeBinaryAtomically(binaryFile, out -> SnapshotFile.writeBinary(snapshot, out));
+        archive = new WeekArchive(directory, 16);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        deleteRecursively(directory);
+    }
+
+    // Часть сохранения, которая остается на тике
+    @Benchmark
+    public PlaytimeSnapshot saveSnapshot() {
+        return data.store.snapshot();
+    }
+
+    // Часть сохранения в потоке записи, без диска
+    @Benchmark
+    public void saveSerialize() throws IOException {
+        try (Writer writer = Writer.nullWriter()) {
+            gson.toJson(snapshot.toJson(), writer);
+        }
+    }
+
+    @Benchmark
+    public void saveSerializeBinary() throws IOException {
+        SnapshotFile.writeBinary(snapshot, OutputStream.nullOutputStream());
+    }
+
+    // Старая загрузка: дерево JsonObject на весь файл
+    @Benchmark
+    public PlaytimeStore load() {
+        return fromJson(JsonParser.parseString(json).getAsJsonObject(), BenchmarkData.WEEK);
+    }
+
+    @Benchmark
+    public PlaytimeStore loadJsonStreaming() throws IOException {
+        return SnapshotFile.readJson(new StringReader(json), BenchmarkData.WEEK).store;
+    }
+
+    @Benchmark
+    public PlaytimeStore loadBinary() throws IOException {
+        return SnapshotFile.readBinary(binaryFile).store;
+    }
+
+    @Benchmark
+    public void archiveWrite() throws IOException {
+        archive.write(snapshot);
+    }
+
+    // Прежний разбор lastlog.json через дерево JsonObject - только для сравнения с SnapshotFile
+    static PlaytimeStore fromJson(JsonObject root, String weekId) {
+        PlaytimeStore store = new PlaytimeStore(weekId);
+        for (Map.Entry<String, JsonElement> e : root.entrySet()) {
+            if (!e.getValue().isJsonObject()) continue;
+            JsonObject entry = e.getValue().getAsJsonObject();
+
+            String name = entry.has("name") ? entry.get("name").getAsString() : e.getKey();
+            boolean provisional = !entry.has("uuid");
+            UUID uuid = provisional ? PlaytimeStore.offlineUuid(name) : UUID.fromString(entry.get("uuid").getAsString());
+
+            PlayerRecord record = new PlayerRecord(uuid, name, provisional);
+            if (entry.has("PVD")) {
+                record.pvd = entry.get("PVD").getAsBoolean();
+            }
+            if (entry.has("weeks") && entry.get("weeks").isJsonObject()) {
+                for (Map.Entry<String, JsonElement> w : entry.getAsJsonObject("weeks").entrySet()) {
+                    long minutes = w.getValue().getAsLong();
+                    if (w.getKey().equals(weekId)) {
+                        record.weekSeconds = minutes * 60;
+                    } else {
+                        if (record.otherWeeks == null) {
+                            record.otherWeeks = new TreeMap<>();
+                        }
+                        record.otherWeeks.put(w.getKey(), minutes);
+                    }
+                }
+            }
+            // Точное время в секундах (в "weeks" для совместимости лежат целые минуты)
+            if (entry.has("weekSeconds") && entry.get("weekSeconds").isJsonObject()) {
+                JsonObject seconds = entry.getAsJsonObject("weekSeconds");
+                if (seconds.has(weekId)) {
+                    record.weekSeconds = seconds.get(weekId).getAsLong();
+                }
+            }
+
+            store.put(record, !entry.has("name"));
+        }
+        return store;
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package org.example.pvdtime;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+// Нагрузочная симуляция на виртуальных часах: PvdCore без сервера Minecraft и тысячи синтетических
+// игроков, которые заходят, двигаются, стоят AFK (в том числе в AFK-бассейне, где их несет течение)
+// и выходят на протяжении нескольких суток со сменой недели. Часы сдвигаются на 50 мс за тик,
+// так что неделя проходит за минуты.
+//
+// Параллельно по тем же событиям ведется независимый подсчет активного времени. В конце - перцентили
+// времени тика, записанные байты и сверка: время игроков (каждый час), архив прошедшей недели,
+// статус и теги PVD, а также данные после перезапуска с того же каталога.
+//
+// ./gradlew simulate --args="<игроков> <онлайн> <суток> <json|journal|mapped> [каталог]"
+public final class PlaytimeSimulator {
+
+    private static final int TPS = SessionTracker.TICKS_PER_SECOND;
+    private static final long MILLIS_PER_TICK = 1000 / TPS;
+    private static final long HOUR_TICKS = 3600L * TPS;
+    // Пятница 00:00 UTC: до первой смены недели трое суток
+    private static final Instant START = Instant.parse("2025-03-07T00:00:00Z");
+    private static final int MAX_REPORTED = 5;
+
+    private final int players;
+    private final int online;
+    private final long endTick;
+    private final Path directory;
+    private final PvdConfig config = new PvdConfig();
+    private final VirtualClock clock = new VirtualClock(START.toEpochMilli(), ZoneOffset.UTC);
+    private final Random random = new Random(42);
+    private final List<Bot> bots = new ArrayList<>();
+    private final PriorityQueue<Bot> queue = new PriorityQueue<>((a, b) -> Long.compare(a.nextTick, b.nextTick));
+    private final Set<UUID> tagged = new HashSet<>();   // теги PVD "на сущностях" игроков
+    private final long thresholdTicks;
+    private final double sessionTicks;
+    private final double offlineTicks;
+    private PvdCore core;
+
+    private final long[] tickMicros = new long[100_001];    // последняя ячейка - все, что дольше
+    private long maxTickNanos;
+    private long maxTickAt;
+    private long events;
+    private long joins;
+    private long checks;
+    private long timeErrors;
+    private long maxTimeError;
+    private long pvdErrors;
+    private long tagErrors;
+    private long archiveErrors;
+    private long reloadErrors;
+    private final List<String> rollovers = new ArrayList<>();
+    private final List<String> examples = new ArrayList<>();
+
+    // Виртуальные часы: двигает только сама симуляция
+    static final class VirtualClock extends Clock {
+        private final ZoneId zone;
+        private volatile long millis;
+
+        VirtualClock(long millis, ZoneId zone) {
+            this.millis = millis;
+            this.zone = zone;
+        }
+
+        void advance(long deltaMillis) {
+            millis += deltaMillis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return Clock.fixed(instant(), zone);
+        }
+    }
+
+    private enum State { OFFLINE, ACTIVE, IDLE, POOL }
+
+    private static final class Bot {
+        final UUID uuid;
+        final String name;
+        State state = State.OFFLINE;
+        long nextTick;          // тик следующего события
+        long leaveTick;
+        long idleUntil;
+        float yaw;
+
+        // Эталон: активные тики текущей недели по событиям бота
+        long expectedTicks;
+        long activeFrom;        // с какого тика время еще не засчитано в expectedTicks
+        long lastActivity;
+        int slack;              // допуск в секундах: округление на выходе и проверка AFK раз в секунду
+
+        Bot(UUID uuid, String name) {
+            this.uuid = uuid;
+            this.name = name;
+        }
+    }
+
+    PlaytimeSimulator(int players, int online, int days, String storageMode, Path directory) {
+        this.players = players;
+        this.online = Math.min(online, players);
+        this.endTick = days * 24 * HOUR_TICKS;
+        this.directory = directory;
+        config.storageMode = storageMode;
+        config.metricsIntervalSeconds = 0;
+        config.hudSeconds = 0;
+        thresholdTicks = config.afkTimeThreshold * 60L * TPS;
+        sessionTicks = 90 * 60.0 * TPS;
+        offlineTicks = sessionTicks * Math.max(0, (double) players / this.online - 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int online = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 9;
+        String storageMode = args.length > 3 ? args[3] : "json";
+        Path directory = args.length > 4 ? Paths.get(args[4]) : Files.createTempDirectory("pvdtime-sim");
+        Files.createDirectories(directory);
+
+        PlaytimeSimulator simulator = new PlaytimeSimulator(players, online, days, storageMode, directory);
+        System.out.println("[PVDTime] Симуляция: " + players + " игроков, ~" + simulator.online + " онлайн, "
+                + days + " сут., хранилище " + storageMode + ", каталог " + directory);
+        long start = System.nanoTime();
+        simulator.run();
+        System.out.println(simulator.report((System.nanoTime() - start) / 1_000_000));
+        System.exit(simulator.failed() ? 1 : 0);
+    }
+
+    void run() {
+        core = new PvdCore(directory, config, clock);
+        core.setOnNewWeek(this::applyTags);
+        core.start(this::applyTag);
+
+        // Стартуем сразу с установившимся онлайном
+        for (int i = 0; i < players; i++) {
+            Bot bot = new Bot(new UUID(random.nextLong(), random.nextLong()), "bot_" + i);
+            bots.add(bot);
+            bot.nextTick = random.nextDouble() * players < online
+                    ? 1 + random.nextInt(60 * TPS)
+                    : 1 + exponential(offlineTicks);
+            queue.add(bot);
+        }
+
+        String weekId = core.playtimeData.getWeekId();
+        while (core.tick < endTick) {
+            clock.advance(MILLIS_PER_TICK);
+            long start = System.nanoTime();
+            core.serverTick();
+            long cost = System.nanoTime() - start;
+            long tick = core.tick;
+
+            // Проверки - вне замера: на сервере их нет
+            if (!weekId.equals(core.playtimeData.getWeekId())) {
+                onRollover(weekId, tick);
+                weekId = core.playtimeData.getWeekId();
+            }
+            if (tick % HOUR_TICKS == 0) {
+                check(tick);    // сразу после тика: статус PVD уже сверен на этом тике
+            }
+
+            // Пакеты и события игроков обрабатываются тем же потоком сервера - входят в стоимость тика
+            start = System.nanoTime();
+            while (queue.peek().nextTick <= tick) {
+                Bot bot = queue.poll();
+                handle(bot, tick);
+                queue.add(bot);
+                events++;
+            }
+            observeTick(cost + System.nanoTime() - start, tick);
+        }
+
+        check(core.tick);
+        core.stop();
+        checkReload();
+    }
+
+    // ---------- поведение игроков ----------
+
+    private void handle(Bot bot, long tick) {
+        if (bot.state == State.OFFLINE) {
+            join(bot, tick);
+            return;
+        }
+        if (tick >= bot.leaveTick) {
+            leave(bot, tick);
+            return;
+        }
+        switch (bot.state) {
+            case ACTIVE:
+                if (random.nextInt(10) == 0) {
+                    core.afk.activity(bot.uuid, tick);      // чат, клик, команда
+                } else {
+                    bot.yaw += 5 + random.nextInt(40);
+                    core.afk.move(bot.uuid, true, false, bot.yaw, 0, tick);
+                }
+                activity(bot, tick);
+                if (random.nextInt(40) == 0) {
+                    // Отошел: 1..15 минут - часть простоев короче порога AFK, часть длиннее
+                    bot.idleUntil = tick + (60 + random.nextInt(14 * 60)) * TPS;
+                    bot.state = random.nextBoolean() ? State.IDLE : State.POOL;
+                }
+                break;
+            case IDLE:
+            case POOL:
+                if (tick >= bot.idleUntil) {
+                    bot.state = State.ACTIVE;
+                    bot.yaw += 90;
+                    core.afk.move(bot.uuid, true, false, bot.yaw, 0, tick);
+                    activity(bot, tick);
+                } else {
+                    // Течение несет игрока без поворота камеры - это не активность
+                    core.afk.move(bot.uuid, true, true, bot.yaw, 0, tick);
+                }
+                break;
+            default:
+                break;
+        }
+        schedule(bot, tick);
+    }
+
+    private void schedule(Bot bot, long tick) {
+        long next;
+        if (bot.state == State.ACTIVE) {
+            next = tick + 5 * TPS + random.nextInt(25 * TPS);
+        } else if (bot.state == State.POOL) {
+            next = Math.min(tick + 10 * TPS, bot.idleUntil);
+        } else {
+            next = bot.idleUntil;
+        }
+        bot.nextTick = Math.min(next, bot.leaveTick);
+    }
+
+    private void join(Bot bot, long tick) {
+        PlayerRecord record = core.join(bot.uuid, bot.name, bot.yaw, 0);
+        setTag(bot.uuid, record.isPvd());      // как PvdTime: статус мог измениться, пока игрок был офлайн
+        bot.state = State.ACTIVE;
+        bot.leaveTick = tick + Math.max(60 * TPS, exponential(sessionTicks));
+        bot.activeFrom = tick;
+        bot.lastActivity = tick;
+        joins++;
+        schedule(bot, tick);
+    }
+
+    private void leave(Bot bot, long tick) {
+        core.leave(bot.uuid);
+        credit(bot, tick);
+        bot.slack++;
+        bot.state = State.OFFLINE;
+        bot.nextTick = tick + 1 + exponential(offlineTicks);
+    }
+
+    private long exponential(double mean) {
+        return (long) (-mean * Math.log(1 - random.nextDouble()));
+    }
+
+    // ---------- эталонный подсчет ----------
+
+    // Активность на тике: время до нее засчитывается, но не дальше момента ухода в AFK
+    private void activity(Bot bot, long tick) {
+        credit(bot, tick);
+        if (tick - bot.lastActivity >= thresholdTicks) {
+            bot.slack++;
+        }
+        bot.lastActivity = tick;
+    }
+
+    private void credit(Bot bot, long upTo) {
+        long end = Math.min(upTo, bot.lastActivity + thresholdTicks);
+        if (end > bot.activeFrom) {
+            bot.expectedTicks += end - bot.activeFrom;
+        }
+        bot.activeFrom = upTo;
+    }
+
+    private long expectedSeconds(Bot bot, long tick) {
+        long ticks = bot.expectedTicks;
+        if (bot.state != State.OFFLINE) {
+            ticks += Math.max(0, Math.min(tick, bot.lastActivity + thresholdTicks) - bot.activeFrom);
+        }
+        return ticks / TPS;
+    }
+
+    // ---------- теги, как в PvdTime ----------
+
+    private void applyTag(PlayerRecord record, boolean pvd) {
+        if (core.sessions.isOnline(record.getUuid())) {
+            setTag(record.getUuid(), pvd);
+        }
+    }
+
+    private void applyTags() {
+        for (UUID uuid : core.sessions.onlineUuids()) {
+            PlayerRecord record = core.playtimeData.get(uuid);
+            setTag(uuid, record != null && record.isPvd());
+        }
+    }
+
+    private void setTag(UUID uuid, boolean pvd) {
+        if (pvd) {
+            tagged.add(uuid);
+        } else {
+            tagged.remove(uuid);
+        }
+    }
+
+    // ---------- проверки ----------
+
+    private void check(long tick) {
+        checks++;
+        long thresholdSeconds = config.requiredMinutes * 60L;
+        for (Bot bot : bots) {
+            PlayerRecord record = core.playtimeData.get(bot.uuid);
+            long actual = record != null ? core.sessions.liveSeconds(record, tick) : 0;
+            long expected = expectedSeconds(bot, tick);
+            long error = Math.abs(actual - expected);
+            maxTimeError = Math.max(maxTimeError, error);
+            if (error > bot.slack + 2) {
+                timeErrors++;
+                example("время " + bot.name + " на тике " + tick + ": " + actual + " с, ожидалось " + expected);
+            }
+            if (record == null) {
+                continue;
+            }
+            // Статус - по зафиксированному времени, как в PvdTracker
+            if (record.isPvd() != record.getWeekSeconds() >= thresholdSeconds) {
+                pvdErrors++;
+                example("статус PVD " + bot.name + ": " + record.isPvd() + " при " + record.getWeekSeconds() + " с");
+            }
+            if (bot.state != State.OFFLINE && tagged.contains(bot.uuid) != record.isPvd()) {
+                tagErrors++;
+                example("тег PVD " + bot.name + " не совпадает со статусом " + record.isPvd());
+            }
+        }
+    }
+
+    // Архив прошедшей недели сверяется с эталоном, после чего эталон начинает новую неделю
+    private void onRollover(String weekId, long tick) {
+        long boundary = WeekRollover.nextWeekStartMillis(clock.millis() - 7 * 24 * 3600 * 1000L, clock.getZone());
+        rollovers.add(weekId + " -> " + core.playtimeData.getWeekId() + " на "
+                + ZonedDateTime.ofInstant(clock.instant(), clock.getZone()).toLocalDateTime()
+                + " (+" + (clock.millis() - boundary) + " мс)");
+        WeekArchive.ArchivedWeek week;
+        core.playtimeWriter.flush();     // архив пишется в потоке записи, ждем его только здесь
+        try {
+            week = core.archive.get(weekId);
+        } catch (IOException e) {
+            e.printStackTrace();
+            week = null;
+        }
+        if (week == null) {
+            archiveErrors++;
+            example("нет архива недели " + weekId);
+        }
+        long thresholdSeconds = config.requiredMinutes * 60L;
+        for (Bot bot : bots) {
+            if (bot.state != State.OFFLINE) {
+                credit(bot, tick);
+            }
+            if (week != null) {
+                int index = week.find(bot.name);
+                long archived = index >= 0 ? week.seconds(index) : 0;
+                long expected = bot.expectedTicks / TPS;
+                if (Math.abs(archived - expected) > bot.slack + 2) {
+                    archiveErrors++;
+                    example("архив " + weekId + ", " + bot.name + ": " + archived + " с, ожидалось " + expected);
+                }
+                if (index >= 0 && week.pvd(index) != archived >= thresholdSeconds) {
+                    archiveErrors++;
+                    example("архив " + weekId + ", статус PVD " + bot.name + " при " + archived + " с");
+                }
+            }
+            bot.expectedTicks = 0;
+            bot.slack = 0;
+            if (bot.state != State.OFFLINE && tagged.contains(bot.uuid)) {
+                tagErrors++;
+                example("тег PVD " + bot.name + " остался после смены недели");
+            }
+        }
+    }
+
+    // Перезапуск с того же каталога: все, что было в памяти при остановке, должно прочитаться с диска
+    private void checkReload() {
+        PvdCore reloaded = new PvdCore(directory, config, clock);
+        reloaded.start((record, pvd) -> {});
+        for (Bot bot : bots) {
+            PlayerRecord before = core.playtimeData.get(bot.uuid);
+            PlayerRecord after = reloaded.playtimeData.get(bot.uuid);
+            long expected = before != null ? before.getWeekSeconds() : 0;
+            long actual = after != null ? after.getWeekSeconds() : 0;
+            if (expected != actual || (before != null && after != null && before.isPvd() != after.isPvd())) {
+                reloadErrors++;
+                example("после перезапуска " + bot.name + ": " + actual + " с, было " + expected);
+            }
+        }
+    }
+
+    private void example(String text) {
+        if (examples.size() < MAX_REPORTED) {
+            examples.add(text);
+        }
+    }
+
+    boolean failed() {
+        return timeErrors + pvdErrors + tagErrors + archiveErrors + reloadErrors > 0;
+    }
+
+    // ---------- отчет ----------
+
+    private void observeTick(long nanos, long tick) {
+        tickMicros[(int) Math.min(nanos / 1000, tickMicros.length - 1)]++;
+        if (nanos > maxTickNanos) {
+            maxTickNanos = nanos;
+            maxTickAt = tick;
+        }
+    }
+
+    private String tickPercentile(double q) {
+        long total = core.tick;
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < tickMicros.length; i++) {
+            seen += tickMicros[i];
+            if (seen >= rank) {
+                return i == tickMicros.length - 1 ? "> " + i + " мкс" : i + " мкс";
+            }
+        }
+        return "-";
+    }
+
+    private String report(long wallMillis) {
+        StringBuilder sb = new StringBuilder("[PVDTime] Симуляция завершена за ").append(wallMillis / 1000).append(" с");
+        sb.append("\n  тиков: ").append(core.tick).append(", событий игроков: ").append(events)
+                .append(", входов: ").append(joins).append(", игроков в хранилище: ").append(core.playtimeData.size());
+        sb.append("\n  тик (мод + события игроков): p50 ").append(tickPercentile(0.5))
+                .append(", p99 ").append(tickPercentile(0.99))
+                .append(", p99.9 ").append(tickPercentile(0.999))
+                .append(", p99.99 ").append(tickPercentile(0.9999))
+                .append(", макс ").append(maxTickNanos / 1000).append(" мкс на тике ").append(maxTickAt);
+        sb.append("\n  записано: lastlog ").append(PvdMetrics.BYTES_LASTLOG.get())
+                .append(" Б, журнал ").append(PvdMetrics.BYTES_JOURNAL.get())
+                .append(" Б, архив ").append(PvdMetrics.BYTES_ARCHIVE.get())
+                .append(" Б, история ").append(PvdMetrics.BYTES_HISTORY.get())
+                .append(" Б; снимков ").append(PvdMetrics.SAVE_WRITE.count())
+                .append(", ошибок записи ").append(PvdMetrics.WRITE_ERRORS.get())
+                .append("; на диске ").append(directorySize()).append(" Б");
+        for (String rollover : rollovers) {
+            sb.append("\n  смена недели: ").append(rollover);
+        }
+        sb.append("\n  проверок: ").append(checks).append(", макс. расхождение времени ").append(maxTimeError).append(" с");
+        sb.append("\n  ошибки: время ").append(timeErrors).append(", статус PVD ").append(pvdErrors)
+                .append(", теги ").append(tagErrors).append(", архив ").append(archiveErrors)
+                .append(", перезапуск ").append(reloadErrors);
+        for (String example : examples) {
+            sb.append("\n    ").append(example);
+        }
+        return sb.toString();
+    }
+
+    private long directorySize() {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.pvdtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Стоимость тика мода: то же расписание, что в PvdTime (AFK, сессии, переходы статуса PVD),
+// плюс пересчет статуса при смене порога PVD.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TickBenchmark {
+
+    private static final int MINUTE_TICKS = 60 * SessionTracker.TICKS_PER_SECOND;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int players;
+
+    @Param({"500"})
+    public int online;
+
+    private BenchmarkData data;
+    private TickScheduler scheduler;
+    private PvdTracker pvd;
+    private boolean raised;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new BenchmarkData(players, online);
+        scheduler = new TickScheduler(2000);
+        scheduler.every(1, 0, data.afk::tick);
+        scheduler.every(1, 0, data.sessions::tick);
+        pvd = new PvdTracker(data.store, data.leaderboard, (record, status) -> {}, 180);
+        data.store.addListener(pvd);
+        scheduler.every(1, 0, t -> pvd.reconcile());
+    }
+
+    // Одна операция - один тик сервера
+    @Benchmark
+    @OperationsPerInvocation(MINUTE_TICKS)
+    public void minuteOfTicks() {
+        for (int i = 0; i < MINUTE_TICKS; i++) {
+            data.tick++;
+            scheduler.tick(data.tick);
+        }
+    }
+
+    // pvd settings time default: порог попеременно 180 и 240 минут, пересчет только тех, кто между ними
+    @Benchmark
+    public void thresholdChange() {
+        raised = !raised;
+        pvd.setThresholdMinutes(raised ? 240 : 180);
+        pvd.reconcile();
+    }
+}
@@ -0,0 +1,141 @@
+package org.example.pvdtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// AFK по событиям активности: движение, поворот камеры, чат, команды, взаимодействие с миром.
+// Каждое событие просто запоминает тик. Тайм-аут проверяется раз в секунду для каждого игрока,
+// причем игроки разнесены по 20 корзинам - за тик проверяется только 1/20 онлайна.
+// Состояние живет только пока игрок онлайн и удаляется при выходе.
+public class AfkTracker {
+
+    public interface Listener {
+        void onAfkChanged(UUID uuid, boolean afk, long tick);
+    }
+
+    private static final int SWEEP_BUCKETS = SessionTracker.TICKS_PER_SECOND;
+    private static final float LOOK_EPSILON = 0.5f;    // мельче - дрожание, а не игрок
+
+    private final Listener listener;
+    private final Map<UUID, State> states = new HashMap<>();
+    private final ArrayList<State>[] buckets;
+    private boolean enabled;
+    private long thresholdTicks;
+
+    static final class State {
+        final UUID uuid;
+        final int bucket;
+        long lastActiveTick;
+        float yaw;
+        float pitch;
+        boolean afk;
+
+        State(UUID uuid, int bucket, long tick) {
+            this.uuid = uuid;
+            this.bucket = bucket;
+            this.lastActiveTick = tick;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public AfkTracker(Listener listener, boolean enabled, int thresholdMinutes) {
+        this.listener = listener;
+        this.enabled = enabled;
+        this.thresholdTicks = thresholdTicks(thresholdMinutes);
+        this.buckets = new ArrayList[SWEEP_BUCKETS];
+        for (int i = 0; i < SWEEP_BUCKETS; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    public void join(UUID uuid, float yaw, float pitch, long tick) {
+        leave(uuid);
+        State state = new State(uuid, (int) (tick % SWEEP_BUCKETS), tick);
+        state.yaw = yaw;
+        state.pitch = pitch;
+        states.put(uuid, state);
+        buckets[state.bucket].add(state);
+    }
+
+    public void leave(UUID uuid) {
+        State state = states.remove(uuid);
+        if (state != null) {
+            buckets[state.bucket].remove(state);
+        }
+    }
+
+    public boolean isAfk(UUID uuid) {
+        State state = states.get(uuid);
+        return state != null && state.afk;
+    }
+
+    // Любое действие игрока (чат, команда, клик, взаимодействие)
+    public void activity(UUID uuid, long tick) {
+        State state = states.get(uuid);
+        if (state != null) {
+            markActive(state, tick);
+        }
+    }
+
+    // Пакет движения. Смещение без поворота камеры засчитывается, только если игрок двигается сам:
+    // passive = в транспорте или в воде, где его может нести течение (AFK-бассейны, вагонетки)
+    public void move(UUID uuid, boolean moved, boolean passive, float yaw, float pitch, long tick) {
+        State state = states.get(uuid);
+        if (state == null) {
+            return;
+        }
+        boolean looked = Math.abs(yaw - state.yaw) > LOOK_EPSILON || Math.abs(pitch - state.pitch) > LOOK_EPSILON;
+        state.yaw = yaw;
+        state.pitch = pitch;
+        if (looked || (moved && !passive)) {
+            markActive(state, tick);
+        }
+    }
+
+    // Вызывается каждый тик, проверяет одну корзину
+    public void tick(long tick) {
+        if (!enabled) {
+            return;
+        }
+        ArrayList<State> bucket = buckets[(int) (tick % SWEEP_BUCKETS)];
+        for (int i = 0; i < bucket.size(); i++) {
+            State state = bucket.get(i);
+            if (!state.afk && tick - state.lastActiveTick >= thresholdTicks) {
+                state.afk = true;
+                listener.onAfkChanged(state.uuid, true, tick);
+            }
+        }
+    }
+
+    public void setEnabled(boolean enabled, long tick) {
+        this.enabled = enabled;
+        if (!enabled) {
+            // Проверку выключили - все, кто был AFK, снова считаются активными
+            for (State state : states.values()) {
+                markActive(state, tick);
+            }
+        }
+    }
+
+    public void setThresholdMinutes(int minutes) {
+        this.thresholdTicks = thresholdTicks(minutes);
+    }
+
+    private void markActive(State state, long tick) {
+        state.lastActiveTick = tick;
+        if (state.afk) {
+            state.afk = false;
+            listener.onAfkChanged(state.uuid, false, tick);
+        }
+    }
+
+    private static long thresholdTicks(int minutes) {
+        return minutes * 60L * SessionTracker.TICKS_PER_SECOND;
+    }
+}
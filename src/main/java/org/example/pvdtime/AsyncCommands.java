@@ -0,0 +1,154 @@
+package org.example.pvdtime;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Команды только для чтения (списки, архив, история, метрики) вне потока сервера.
+//
+// На тике снимается неизменяемый снимок нужных данных (Snapshot), текст по нему собирается в потоке
+// команд (Render: сортировка, чтение архива, форматирование), а ответ отправляется обратно в поток
+// сервера. Одинаковые запросы (тот же key), пришедшие, пока текст еще собирается, получают тот же
+// результат - и снимок, и сборка делаются один раз. Каждый игрок может запрашивать не чаще раза
+// в cooldownTicks. Команды, меняющие данные, сюда не попадают.
+//
+// Если у данных ответа есть версия (например, версия страницы таблицы лидеров), готовый текст остается
+// в кэше по key: пока версия та же, следующие запросы получают его сразу, без снимка и без сборки.
+// Кэш небольшой (CACHE_SIZE ключей, вытесняется самый давно запрошенный), ошибки не кэшируются.
+public class AsyncCommands {
+
+    public static final String ERROR_TEXT = "§cОшибка при загрузке данных.";
+    public static final long NO_CACHE = -1;
+    private static final int CACHE_SIZE = 256;
+
+    // Вызывается в потоке команд; данные хранилища трогать нельзя - только снимок
+    public interface Render {
+        String render() throws IOException;
+    }
+
+    // Вызывается на тике
+    public interface Snapshot {
+        Render take();
+    }
+
+    private final ExecutorService executor;
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> lastRequest = new HashMap<>();   // только на тике
+    private final Map<String, Cached> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private final int cooldownTicks;
+
+    private static final class Cached {
+        final long version;
+        final String text;
+
+        Cached(long version, String text) {
+            this.version = version;
+            this.text = text;
+        }
+    }
+
+    public AsyncCommands(int threads, int cooldownTicks) {
+        this.cooldownTicks = cooldownTicks;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "PVDTime-commands");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // false - игрок спрашивал меньше cooldownTicks назад
+    public boolean tryAcquire(UUID player, long tick) {
+        Long last = lastRequest.get(player);
+        if (last != null && tick - last < cooldownTicks) {
+            return false;
+        }
+        lastRequest.put(player, tick);
+        return true;
+    }
+
+    public void leave(UUID player) {
+        lastRequest.remove(player);
+    }
+
+    // Вызывается на тике. deliver выполняется в mainThread с готовым текстом (или ERROR_TEXT)
+    public void submit(String key, Snapshot snapshot, Executor mainThread, Consumer<String> deliver) {
+        submit(key, NO_CACHE, snapshot, mainThread, deliver);
+    }
+
+    // version - версия данных, по которым собирается текст (NO_CACHE - не кэшировать).
+    // Из кэша deliver вызывается сразу, на этом же тике.
+    public void submit(String key, long version, Snapshot snapshot, Executor mainThread, Consumer<String> deliver) {
+        if (version != NO_CACHE) {
+            String text = cached(key, version);
+            if (text != null) {
+                PvdMetrics.COMMANDS_CACHED.add(1);
+                deliver.accept(text);
+                return;
+            }
+        }
+        String flightKey = version != NO_CACHE ? key + "@" + version : key;
+        CompletableFuture<String> future = inFlight.get(flightKey);
+        if (future == null) {
+            Render render = snapshot.take();
+            future = new CompletableFuture<>();
+            inFlight.put(flightKey, future);
+            CompletableFuture<String> started = future;
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    String text = render.render();
+                    if (version != NO_CACHE) {
+                        store(key, version, text);
+                    }
+                    started.complete(text);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    started.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(flightKey, started);
+                    PvdMetrics.COMMAND_ASYNC.observeSince(start);
+                }
+            });
+        } else {
+            PvdMetrics.COMMANDS_COALESCED.add(1);
+        }
+        future.whenComplete((text, error) -> {
+            String result = error != null ? ERROR_TEXT : text;
+            mainThread.execute(() -> deliver.accept(result));
+        });
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private String cached(String key, long version) {
+        synchronized (cache) {
+            Cached cached = cache.get(key);
+            return cached != null && cached.version == version ? cached.text : null;
+        }
+    }
+
+    // Сборки по разным версиям могут закончиться не по порядку - старая не затирает новую
+    private void store(String key, long version, String text) {
+        synchronized (cache) {
+            Cached cached = cache.get(key);
+            if (cached == null || cached.version <= version) {
+                cache.put(key, new Cached(version, text));
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.pvdtime;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+// Хранение в снимке lastlog (lastlog.bin или lastlog.json, см. SnapshotFile). Два режима:
+//   "json"    - раз в минуту весь снимок целиком (если что-то менялось);
+//   "journal" - изменения дописываются в журнал, а снимок переписывается только при сворачивании.
+// Журнал доигрывается при загрузке в обоих режимах: он мог остаться после переключения обратно на "json".
+public class JsonStorage implements PlaytimeStorage {
+
+    private final Path file;
+    private final Path binaryFile;
+    private final boolean binary;           // писать lastlog.bin (читается всегда более свежий из двух)
+    private final Path journalDirectory;
+    private final PlaytimeWriter writer;
+    private final boolean journalMode;
+    private final int compactMinutes;
+    private final Clock clock;              // для сворачивания журнала; в симуляторе - виртуальные часы
+
+    private PlaytimeJournal journal;            // null в режиме "json"
+    private long journalBaseSegment = -1;       // в режиме "json": сегменты до этого номера удаляются после записи снимка
+    private long lastSavedVersion = -1;
+    private long lastCompactTime;
+
+    public JsonStorage(Path file, Path binaryFile, boolean binary, Path journalDirectory, PlaytimeWriter writer,
+                       boolean journalMode, int compactMinutes, Clock clock) {
+        this.file = file;
+        this.binaryFile = binaryFile;
+        this.binary = binary;
+        this.journalDirectory = journalDirectory;
+        this.writer = writer;
+        this.journalMode = journalMode;
+        this.compactMinutes = compactMinutes;
+        this.clock = clock;
+    }
+
+    @Override
+    public PlaytimeStore load(String currentWeekId) {
+        PlaytimeStore store = new PlaytimeStore(currentWeekId);
+        long fromSegment = 0;
+
+        try {
+            // Старые файлы без "#week" считаем текущей неделей, как и раньше
+            SnapshotFile.Loaded loaded = SnapshotFile.read(binaryFile, file, currentWeekId);
+            if (loaded != null) {
+                store = loaded.store;
+                fromSegment = Math.max(0, loaded.journalSegment);
+                lastSavedVersion = store.getVersion();
+            }
+        } catch (IOException e) {
+            // Не стартуем с пустым хранилищем: первое же сохранение затерло бы неразобранный файл
+            throw new IllegalStateException("Не удалось прочитать снимок lastlog", e);
+        }
+
+        writer.setBinaryFile(binary ? binaryFile : null);
+        long lastSegment = PlaytimeJournal.replay(journalDirectory, fromSegment, store);
+        writer.setAfterWrite(snapshot -> {
+            if (snapshot.getJournalSegment() > 0) {
+                PlaytimeJournal.deleteSegmentsBefore(journalDirectory, snapshot.getJournalSegment());
+            }
+        });
+
+        if (journalMode) {
+            journal = new PlaytimeJournal(journalDirectory, writer, lastSegment + 1);
+            store.addListener(journal);
+            lastCompactTime = clock.millis();
+        } else if (lastSegment >= fromSegment) {
+            journalBaseSegment = lastSegment + 1;
+        }
+        return store;
+    }
+
+    // Ставит снимок данных в очередь на фоновую запись; если ничего не менялось - не пишет вовсе.
+    // В режиме журнала пишутся только изменения, а полный снимок - при сворачивании.
+    @Override
+    public void save(PlaytimeStore store) {
+        if (journal != null) {
+            journal.flush();
+            long now = clock.millis();
+            if (now - lastCompactTime >= TimeUnit.MINUTES.toMillis(compactMinutes)) {
+                compact(store);
+                lastCompactTime = now;
+            }
+            PvdMetrics.JOURNAL_BYTES.set(journal.getSegmentBytes());
+            return;
+        }
+
+        if (store.getVersion() == lastSavedVersion) {
+            return;
+        }
+        lastSavedVersion = store.getVersion();
+        PlaytimeSnapshot snapshot = store.snapshot();
+        snapshot.journalSegment = journalBaseSegment;
+        writer.submit(snapshot);
+    }
+
+    @Override
+    public void close(PlaytimeStore store) {
+        if (journal != null) {
+            compact(store);
+            journal.close();
+        } else {
+            save(store);
+        }
+    }
+
+    private void compact(PlaytimeStore store) {
+        if (store.getVersion() == lastSavedVersion) {
+            journal.flush();
+            return;
+        }
+        lastSavedVersion = store.getVersion();
+        journal.compact(store.snapshot());
+    }
+}
@@ -0,0 +1,236 @@
+package org.example.pvdtime;
+
+import java.util.Arrays;
+
+// Таблица лидеров текущей недели: массив записей по убыванию времени, который поддерживается
+// на каждом изменении хранилища. Время почти всегда только растет, поэтому запись сдвигается
+// на несколько позиций вверх - без пересортировки всего списка.
+// Позиция игрока хранится в самой записи, страница и топ - это просто срез массива.
+//
+// Для кэша текста списков (AsyncCommands) у страниц есть версии: номер последнего изменения, задевшего
+// страницу. Номера берутся из одного счетчика, поэтому версия нескольких страниц - максимум по ним.
+// Вставка и удаление сдвигают все строки ниже - это одна отметка на странице, где начался сдвиг.
+public class Leaderboard implements PlaytimeStore.Listener {
+
+    private static final int PAGE_SIZE = PlaytimeViews.PAGE_SIZE;
+
+    private PlayerRecord[] order = new PlayerRecord[64];
+    private int size;
+    private long version;
+    private long clearedVersion;
+    private long[] pageChanged = new long[64 / PAGE_SIZE + 1];  // изменились строки внутри страницы
+    private long[] shiftedFrom = new long[64 / PAGE_SIZE + 1];  // сдвиг от этой страницы и до конца
+
+    // Полная перестройка при загрузке; дальше таблица обновляется только через события хранилища
+    public void rebuild(PlaytimeStore store) {
+        for (int i = 0; i < size; i++) {
+            order[i].leaderboardIndex = -1;
+        }
+        clear();
+        for (PlayerRecord record : store.records()) {
+            if (record.weekSeconds > 0) {
+                ensureCapacity(size + 1);
+                order[size++] = record;
+            }
+        }
+        Arrays.sort(order, 0, size, (a, b) -> Long.compare(b.weekSeconds, a.weekSeconds));
+        for (int i = 0; i < size; i++) {
+            order[i].leaderboardIndex = i;
+        }
+    }
+
+    // Меняется при любом изменении таблицы
+    public long getVersion() {
+        return version;
+    }
+
+    // Версия страниц с firstPage по lastPage (с 0): не изменилась - не изменился и их текст
+    public long versionOfPages(int firstPage, int lastPage) {
+        long result = clearedVersion;
+        for (int page = 0; page <= lastPage && page < pageChanged.length; page++) {
+            result = Math.max(result, shiftedFrom[page]);
+            if (page >= firstPage) {
+                result = Math.max(result, pageChanged[page]);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // index от 0, по убыванию времени
+    public PlayerRecord get(int index) {
+        return order[index];
+    }
+
+    // Сколько игроков наиграли не меньше seconds (индекс первого, у кого меньше)
+    public int indexBelow(long seconds) {
+        return firstIndexBelow(seconds, 0, size);
+    }
+
+    // Место игрока с учетом равного времени (1 + число игроков, у которых строго больше), 0 - нет в таблице
+    public int rankOf(PlayerRecord record) {
+        if (record.leaderboardIndex < 0) {
+            return 0;
+        }
+        return firstIndexNotAbove(record.weekSeconds, 0, record.leaderboardIndex) + 1;
+    }
+
+    @Override
+    public void onPlayer(PlayerRecord record) {
+        update(record);
+    }
+
+    @Override
+    public void onRemove(PlayerRecord record) {
+        if (record.leaderboardIndex >= 0) {
+            removeAt(record.leaderboardIndex);
+        }
+    }
+
+    @Override
+    public void onAddSeconds(PlayerRecord record, long seconds) {
+        update(record);
+    }
+
+    @Override
+    public void onSetSeconds(PlayerRecord record, long seconds) {
+        update(record);
+    }
+
+    @Override
+    public void onPvd(PlayerRecord record, boolean pvd) {
+        if (record.leaderboardIndex >= 0) {
+            version++;
+            touch(record.leaderboardIndex, record.leaderboardIndex);
+        }
+    }
+
+    @Override
+    public void onClearAll() {
+        clear();
+    }
+
+    @Override
+    public void onStartWeek(String weekId) {
+        clear();
+    }
+
+    private void update(PlayerRecord record) {
+        int index = record.leaderboardIndex;
+        long value = record.weekSeconds;
+        version++;
+
+        if (index < 0) {
+            if (value > 0) {
+                insert(record);
+            }
+            return;
+        }
+        if (value <= 0) {
+            removeAt(index);
+            return;
+        }
+
+        // Вверх: встаем перед первым, у кого меньше (после равных)
+        int target = firstIndexBelow(value, 0, index);
+        if (target < index) {
+            System.arraycopy(order, target, order, target + 1, index - target);
+            order[target] = record;
+            reindex(target, index);
+            touch(target, index);
+            return;
+        }
+
+        // Вниз (админ уменьшил время): встаем после последнего, у кого больше или столько же
+        target = firstIndexBelow(value, index + 1, size) - 1;
+        if (target > index) {
+            System.arraycopy(order, index + 1, order, index, target - index);
+            order[target] = record;
+            reindex(index, target);
+            touch(index, target);
+            return;
+        }
+        touch(index, index);
+    }
+
+    private void insert(PlayerRecord record) {
+        ensureCapacity(size + 1);
+        int target = firstIndexBelow(record.weekSeconds, 0, size);
+        System.arraycopy(order, target, order, target + 1, size - target);
+        order[target] = record;
+        size++;
+        reindex(target, size - 1);
+        shiftedFrom[target / PAGE_SIZE] = version;
+    }
+
+    private void removeAt(int index) {
+        order[index].leaderboardIndex = -1;
+        System.arraycopy(order, index + 1, order, index, size - index - 1);
+        order[--size] = null;
+        reindex(index, size - 1);
+        shiftedFrom[index / PAGE_SIZE] = version;
+    }
+
+    // Вызывается вместе со сбросом счетчиков в хранилище: позиции в записях не трогаем,
+    // их обнулит PlaytimeStore.normalize при следующем обращении к записи
+    private void clear() {
+        order = new PlayerRecord[64];
+        size = 0;
+        pageChanged = new long[64 / PAGE_SIZE + 1];
+        shiftedFrom = new long[64 / PAGE_SIZE + 1];
+        clearedVersion = ++version;
+    }
+
+    private void touch(int from, int to) {
+        for (int page = from / PAGE_SIZE; page <= to / PAGE_SIZE; page++) {
+            pageChanged[page] = version;
+        }
+    }
+
+    private void reindex(int from, int to) {
+        for (int i = from; i <= to; i++) {
+            order[i].leaderboardIndex = i;
+        }
+    }
+
+    // Первый индекс в [from, to), где время строго меньше value (или to)
+    private int firstIndexBelow(long value, int from, int to) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (order[middle].weekSeconds < value) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    // Первый индекс в [from, to), где время не больше value (или to)
+    private int firstIndexNotAbove(long value, int from, int to) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (order[middle].weekSeconds <= value) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > order.length) {
+            order = Arrays.copyOf(order, Math.max(order.length * 2, capacity));
+            pageChanged = Arrays.copyOf(pageChanged, order.length / PAGE_SIZE + 1);
+            shiftedFrom = Arrays.copyOf(shiftedFrom, order.length / PAGE_SIZE + 1);
+        }
+    }
+}
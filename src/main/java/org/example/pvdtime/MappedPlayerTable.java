@@ -0,0 +1,501 @@
+package org.example.pvdtime;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// Таблица игроков в отображенном в память файле: записи фиксированного размера, изменения - запись на месте.
+//
+//   players.dat:   заголовок (64 байта), затем записи по 48 байт:
+//                  uuid(16) смещение ника(4) длина ника(2) флаги(1) -(1) эпоха(4) -(4) секунды(8) last seen(8)
+//   players.names: ники в UTF-8 подряд; при смене ника новый дописывается в конец
+//
+// Эпоха в заголовке растет при смене недели и "clear all": секунды и PVD записи действительны, только
+// если ее эпоха совпадает с заголовком. Так сброс всех игроков - одна запись в заголовок, а не обход файла.
+//
+// Индексы по UUID и по нику (без учета регистра) - хэш-таблицы с открытой адресацией в памяти вне кучи,
+// строятся при открытии по самим записям. Там же для подсказок - записи, отсортированные по нику.
+// Все изменения - с потока сервера; force() можно звать из потока записи.
+public class MappedPlayerTable implements Closeable {
+
+    private static final int MAGIC = 0x50564454; // "PVDT"
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int RECORD_BYTES = 48;
+    private static final int WEEK_ID_BYTES = 30;
+
+    // заголовок
+    private static final int H_MAGIC = 0;
+    private static final int H_FORMAT = 4;
+    private static final int H_COUNT = 8;
+    private static final int H_EPOCH = 12;
+    private static final int H_NAMES_LENGTH = 16;
+    private static final int H_WEEK_ID = 24;      // short длина + байты
+
+    // поля записи
+    private static final int R_MSB = 0;
+    private static final int R_LSB = 8;
+    private static final int R_NAME_OFFSET = 16;
+    private static final int R_NAME_LENGTH = 20;
+    private static final int R_FLAGS = 22;
+    private static final int R_EPOCH = 24;
+    private static final int R_SECONDS = 32;
+    private static final int R_LAST_SEEN = 40;
+
+    private static final byte F_USED = 1;
+    private static final byte F_PVD = 2;
+    private static final byte F_PROVISIONAL = 4;
+
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+
+    private final FileChannel recordsChannel;
+    private final FileChannel namesChannel;
+    private MappedByteBuffer records;
+    private MappedByteBuffer names;
+    private int capacity;
+    private int count;
+    private int epoch;
+    private int namesLength;
+
+    // Индексы: номер записи + 1, 0 - пусто, -1 - удалено
+    private ByteBuffer uuidIndex;
+    private ByteBuffer nameIndex;
+    private int indexMask;
+    private int indexUsed;      // занятые и удаленные ячейки обоих индексов вместе
+
+    // Подсказки: по 12 байт - смещение ника в players.names, длина, номер записи; по нику без учета регистра.
+    // Ники в players.names только дописываются, так что ссылка на ник на момент сортировки не портится.
+    private static final int SORTED_BYTES = 12;
+    private ByteBuffer sortedNames;
+    private int sortedCount;
+
+    private MappedPlayerTable(FileChannel recordsChannel, FileChannel namesChannel) {
+        this.recordsChannel = recordsChannel;
+        this.namesChannel = namesChannel;
+    }
+
+    public static boolean exists(Path directory) {
+        return Files.exists(directory.resolve("players.dat"));
+    }
+
+    public static MappedPlayerTable open(Path directory, String weekId) throws IOException {
+        Files.createDirectories(directory);
+        Path recordsFile = directory.resolve("players.dat");
+        boolean created = !Files.exists(recordsFile) || Files.size(recordsFile) < HEADER_BYTES;
+        MappedPlayerTable table = new MappedPlayerTable(
+                FileChannel.open(recordsFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                FileChannel.open(directory.resolve("players.names"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+
+        if (created) {
+            table.mapRecords(1024);
+            table.records.putInt(H_MAGIC, MAGIC);
+            table.records.putInt(H_FORMAT, FORMAT);
+            table.setWeekId(weekId);
+            table.mapNames(1 << 16);
+        } else {
+            int fileCapacity = (int) ((table.recordsChannel.size() - HEADER_BYTES) / RECORD_BYTES);
+            table.mapRecords(Math.max(fileCapacity, 1024));
+            if (table.records.getInt(H_MAGIC) != MAGIC || table.records.getInt(H_FORMAT) != FORMAT) {
+                table.close();
+                throw new IOException("Неизвестный формат " + recordsFile);
+            }
+            table.count = table.records.getInt(H_COUNT);
+            table.epoch = table.records.getInt(H_EPOCH);
+            table.namesLength = (int) table.records.getLong(H_NAMES_LENGTH);
+            table.mapNames(Math.max((int) table.namesChannel.size(), Math.max(table.namesLength, 1 << 16)));
+        }
+        table.rebuildIndexes(Math.max(1024, Integer.highestOneBit(Math.max(table.count, 1)) * 4));
+        table.sortNames();
+        return table;
+    }
+
+    // ---------- заголовок ----------
+
+    public int count() {
+        return count;
+    }
+
+    public String getWeekId() {
+        byte[] bytes = new byte[records.getShort(H_WEEK_ID)];
+        records.get(H_WEEK_ID + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Новая неделя: все счетчики сбрасываются сменой эпохи
+    public void startWeek(String weekId) {
+        setWeekId(weekId);
+        clearAll();
+    }
+
+    public void clearAll() {
+        epoch++;
+        records.putInt(H_EPOCH, epoch);
+    }
+
+    private void setWeekId(String weekId) {
+        byte[] bytes = weekId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > WEEK_ID_BYTES) {
+            throw new IllegalArgumentException("Слишком длинный номер недели: " + weekId);
+        }
+        records.putShort(H_WEEK_ID, (short) bytes.length);
+        records.put(H_WEEK_ID + 2, bytes);
+    }
+
+    // ---------- поиск ----------
+
+    // Номер записи или -1
+    public int find(UUID uuid) {
+        int slot = hash(uuid) & indexMask;
+        while (true) {
+            int value = uuidIndex.getInt(slot * 4);
+            if (value == EMPTY) {
+                return -1;
+            }
+            if (value != DELETED) {
+                int row = value - 1;
+                int at = offset(row);
+                if (records.getLong(at + R_MSB) == uuid.getMostSignificantBits()
+                        && records.getLong(at + R_LSB) == uuid.getLeastSignificantBits()) {
+                    return row;
+                }
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    // По нику без учета регистра; key - ник в нижнем регистре
+    public int findByName(String key) {
+        int slot = hash(key) & indexMask;
+        while (true) {
+            int value = nameIndex.getInt(slot * 4);
+            if (value == EMPTY) {
+                return -1;
+            }
+            if (value != DELETED && key(name(value - 1)).equals(key)) {
+                return value - 1;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    // Ники записей, бывших в таблице при последней sortNames(), с префиксом prefix (без учета регистра),
+    // по алфавиту, не больше limit. Удаленные и переименованные с тех пор пропускаются - новые ники
+    // надо искать там, куда о них сообщают события хранилища (NameIndex).
+    public void suggest(String prefix, int limit, Consumer<String> consumer) {
+        String from = key(prefix);
+        int low = 0;
+        int high = sortedCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (key(sortedName(middle)).compareTo(from) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int found = 0;
+        for (int i = low; i < sortedCount && found < limit; i++) {
+            String name = sortedName(i);
+            if (!key(name).startsWith(from)) {
+                return;
+            }
+            int row = sortedNames.getInt(i * SORTED_BYTES + 6);
+            if (isUsed(row) && records.getInt(offset(row) + R_NAME_OFFSET) == sortedNames.getInt(i * SORTED_BYTES)) {
+                consumer.accept(name);
+                found++;
+            }
+        }
+    }
+
+    // Перестраивает порядок для suggest; при открытии и после переноса игроков
+    public void sortNames() {
+        int used = 0;
+        for (int row = 0; row < count; row++) {
+            if (isUsed(row)) used++;
+        }
+        // Ключи в куче - только на время сортировки
+        String[] keys = new String[used];
+        Integer[] rows = new Integer[used];
+        int n = 0;
+        for (int row = 0; row < count; row++) {
+            if (isUsed(row)) {
+                keys[n] = key(name(row));
+                rows[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(rows, (a, b) -> keys[a].compareTo(keys[b]));
+        int[] rowOf = new int[used];
+        n = 0;
+        for (int row = 0; row < count; row++) {
+            if (isUsed(row)) rowOf[n++] = row;
+        }
+
+        sortedNames = ByteBuffer.allocateDirect(Math.max(1, used) * SORTED_BYTES);
+        for (int i = 0; i < used; i++) {
+            int row = rowOf[rows[i]];
+            int at = offset(row);
+            sortedNames.putInt(i * SORTED_BYTES, records.getInt(at + R_NAME_OFFSET));
+            sortedNames.putShort(i * SORTED_BYTES + 4, records.getShort(at + R_NAME_LENGTH));
+            sortedNames.putInt(i * SORTED_BYTES + 6, row);
+        }
+        sortedCount = used;
+    }
+
+    private String sortedName(int index) {
+        byte[] bytes = new byte[sortedNames.getShort(index * SORTED_BYTES + 4) & 0xFFFF];
+        names.get(sortedNames.getInt(index * SORTED_BYTES), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ---------- чтение записи ----------
+
+    public boolean isUsed(int row) {
+        return (records.get(offset(row) + R_FLAGS) & F_USED) != 0;
+    }
+
+    public UUID uuid(int row) {
+        int at = offset(row);
+        return new UUID(records.getLong(at + R_MSB), records.getLong(at + R_LSB));
+    }
+
+    public String name(int row) {
+        int at = offset(row);
+        byte[] bytes = new byte[records.getShort(at + R_NAME_LENGTH) & 0xFFFF];
+        names.get(records.getInt(at + R_NAME_OFFSET), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public boolean isProvisional(int row) {
+        return (records.get(offset(row) + R_FLAGS) & F_PROVISIONAL) != 0;
+    }
+
+    public long seconds(int row) {
+        int at = offset(row);
+        return records.getInt(at + R_EPOCH) == epoch ? records.getLong(at + R_SECONDS) : 0;
+    }
+
+    public boolean isPvd(int row) {
+        int at = offset(row);
+        return records.getInt(at + R_EPOCH) == epoch && (records.get(at + R_FLAGS) & F_PVD) != 0;
+    }
+
+    public long lastSeen(int row) {
+        return records.getLong(offset(row) + R_LAST_SEEN);
+    }
+
+    // ---------- изменения ----------
+
+    public int insert(UUID uuid, String name, boolean provisional) {
+        if (count == capacity) {
+            mapRecords(capacity * 2);
+        }
+        int row = count++;
+        int at = offset(row);
+        records.putLong(at + R_MSB, uuid.getMostSignificantBits());
+        records.putLong(at + R_LSB, uuid.getLeastSignificantBits());
+        writeName(row, name);
+        records.put(at + R_FLAGS, (byte) (F_USED | (provisional ? F_PROVISIONAL : 0)));
+        records.putInt(at + R_EPOCH, epoch);
+        records.putLong(at + R_SECONDS, 0);
+        records.putLong(at + R_LAST_SEEN, 0);
+        records.putInt(H_COUNT, count);
+
+        ensureIndexCapacity();
+        indexPut(uuidIndex, hash(uuid), row);
+        putName(key(name), row);
+        return row;
+    }
+
+    public void remove(int row) {
+        indexRemove(uuidIndex, hash(uuid(row)), row);
+        indexRemove(nameIndex, hash(key(name(row))), row);
+        int at = offset(row);
+        records.put(at + R_FLAGS, (byte) 0);
+    }
+
+    // Привязка записи, созданной по нику, к настоящему UUID
+    public void bind(int row, UUID uuid) {
+        indexRemove(uuidIndex, hash(uuid(row)), row);
+        int at = offset(row);
+        records.putLong(at + R_MSB, uuid.getMostSignificantBits());
+        records.putLong(at + R_LSB, uuid.getLeastSignificantBits());
+        records.put(at + R_FLAGS, (byte) (records.get(at + R_FLAGS) & ~F_PROVISIONAL));
+        indexPut(uuidIndex, hash(uuid), row);
+    }
+
+    public void rename(int row, String name) {
+        String oldKey = key(name(row));
+        String newKey = key(name);
+        if (!oldKey.equals(newKey)) {
+            indexRemove(nameIndex, hash(oldKey), row);
+            putName(newKey, row);
+        }
+        writeName(row, name);
+    }
+
+    public void setSeconds(int row, long seconds) {
+        normalize(row);
+        records.putLong(offset(row) + R_SECONDS, seconds);
+    }
+
+    public void setPvd(int row, boolean pvd) {
+        normalize(row);
+        int at = offset(row);
+        byte flags = records.get(at + R_FLAGS);
+        records.put(at + R_FLAGS, (byte) (pvd ? flags | F_PVD : flags & ~F_PVD));
+    }
+
+    public void setLastSeen(int row, long millis) {
+        records.putLong(offset(row) + R_LAST_SEEN, millis);
+    }
+
+    // Сбрасывает данные прошлой эпохи перед записью в текущую
+    private void normalize(int row) {
+        int at = offset(row);
+        if (records.getInt(at + R_EPOCH) != epoch) {
+            records.putLong(at + R_SECONDS, 0);
+            records.put(at + R_FLAGS, (byte) (records.get(at + R_FLAGS) & ~F_PVD));
+            records.putInt(at + R_EPOCH, epoch);
+        }
+    }
+
+    private void writeName(int row, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (namesLength + bytes.length > names.capacity()) {
+            mapNames(Math.max(names.capacity() * 2, namesLength + bytes.length));
+        }
+        names.put(namesLength, bytes);
+        int at = offset(row);
+        records.putInt(at + R_NAME_OFFSET, namesLength);
+        records.putShort(at + R_NAME_LENGTH, (short) bytes.length);
+        namesLength += bytes.length;
+        records.putLong(H_NAMES_LENGTH, namesLength);
+    }
+
+    // Сброс изменений на диск (из потока записи)
+    public void force() {
+        records.force();
+        names.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        recordsChannel.close();
+        namesChannel.close();
+    }
+
+    // ---------- отображение файлов ----------
+
+    private void mapRecords(int newCapacity) {
+        try {
+            records = recordsChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) newCapacity * RECORD_BYTES);
+            capacity = newCapacity;
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось расширить players.dat", e);
+        }
+    }
+
+    private void mapNames(int newCapacity) {
+        try {
+            names = namesChannel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось расширить players.names", e);
+        }
+    }
+
+    private static int offset(int row) {
+        return HEADER_BYTES + row * RECORD_BYTES;
+    }
+
+    // ---------- индексы ----------
+
+    private void ensureIndexCapacity() {
+        // Держим заполнение каждого индекса не выше половины, с учетом удаленных ячеек
+        if (indexUsed + 2 > indexMask + 1) {
+            rebuildIndexes((indexMask + 1) * 2);
+        }
+    }
+
+    private void rebuildIndexes(int size) {
+        uuidIndex = ByteBuffer.allocateDirect(size * 4);
+        nameIndex = ByteBuffer.allocateDirect(size * 4);
+        indexMask = size - 1;
+        indexUsed = 0;
+        for (int row = 0; row < count; row++) {
+            if (isUsed(row)) {
+                indexPut(uuidIndex, hash(uuid(row)), row);
+                putName(key(name(row)), row);
+            }
+        }
+    }
+
+    // Ник переходит к этой записи, даже если раньше был у другой (как и в PlaytimeStore)
+    private void putName(String key, int row) {
+        int previous = findByName(key);
+        if (previous >= 0) {
+            indexRemove(nameIndex, hash(key), previous);
+        }
+        indexPut(nameIndex, hash(key), row);
+    }
+
+    private void indexPut(ByteBuffer index, int hash, int row) {
+        int slot = hash & indexMask;
+        while (true) {
+            int value = index.getInt(slot * 4);
+            if (value == EMPTY || value == DELETED) {
+                if (value == EMPTY) {
+                    indexUsed++;
+                }
+                index.putInt(slot * 4, row + 1);
+                return;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    private void indexRemove(ByteBuffer index, int hash, int row) {
+        int slot = hash & indexMask;
+        while (true) {
+            int value = index.getInt(slot * 4);
+            if (value == EMPTY) {
+                return;
+            }
+            if (value == row + 1) {
+                index.putInt(slot * 4, DELETED);
+                return;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    private static int hash(UUID uuid) {
+        return mix(uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits());
+    }
+
+    private static int hash(String key) {
+        return mix(key.hashCode());
+    }
+
+    private static int mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
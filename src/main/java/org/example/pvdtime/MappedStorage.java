@@ -0,0 +1,180 @@
+package org.example.pvdtime;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// Хранение в MappedPlayerTable (storageMode "mapped") - для серверов с очень большой историей игроков.
+// В куче держатся только игроки, у которых есть время или PVD на этой неделе, остальные подгружаются
+// из таблицы при обращении (вход, команды по нику) и выгружаются снова при выходе без времени
+// и при смене недели (PlaytimeStore.evict). Каждое изменение хранилища сразу пишется в запись
+// на месте; сохранение раз в минуту - только force() отображенных файлов в потоке записи.
+//
+// При первом запуске в этом режиме игроки переносятся из lastlog.json (и журнала, если он есть).
+public class MappedStorage implements PlaytimeStorage, PlaytimeStore.Listener, PlaytimeStore.Backing {
+
+    private final Path directory;
+    private final PlaytimeWriter writer;
+    private final PlaytimeStorage legacy;
+    private MappedPlayerTable table;
+    private long lastSavedVersion = -1;
+
+    public MappedStorage(Path directory, PlaytimeWriter writer, PlaytimeStorage legacy) {
+        this.directory = directory;
+        this.writer = writer;
+        this.legacy = legacy;
+    }
+
+    @Override
+    public PlaytimeStore load(String currentWeekId) {
+        boolean migrate = !MappedPlayerTable.exists(directory);
+        PlaytimeStore store;
+        try {
+            if (migrate) {
+                store = legacy.load(currentWeekId);
+                table = MappedPlayerTable.open(directory, store.getWeekId());
+                for (PlayerRecord record : store.records()) {
+                    writeNew(record);
+                }
+                table.force();
+                table.sortNames();
+                System.out.println("[PVDTime] Игроки перенесены в players.dat: " + table.count());
+                // Дальше как при обычном запуске: в памяти остаются только активные за неделю
+                store = new PlaytimeStore(store.getWeekId());
+            } else {
+                table = MappedPlayerTable.open(directory, currentWeekId);
+                store = new PlaytimeStore(table.getWeekId());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось открыть players.dat", e);
+        }
+
+        // В память - только активные за неделю: они нужны таблице лидеров и архиву
+        for (int row = 0; row < table.count(); row++) {
+            if (table.isUsed(row) && (table.seconds(row) > 0 || table.isPvd(row))) {
+                store.attach(read(row));
+            }
+        }
+        store.setBacking(this);
+        store.addListener(this);
+        lastSavedVersion = store.getVersion();
+        return store;
+    }
+
+    @Override
+    public void save(PlaytimeStore store) {
+        if (store.getVersion() == lastSavedVersion) {
+            return;
+        }
+        lastSavedVersion = store.getVersion();
+        writer.execute(this::force);
+    }
+
+    @Override
+    public void close(PlaytimeStore store) {
+        force();
+    }
+
+    @Override
+    public void seen(PlayerRecord record, long millis) {
+        if (record.slot >= 0) {
+            table.setLastSeen(record.slot, millis);
+        }
+    }
+
+    @Override
+    public void suggestStored(String prefix, int limit, Consumer<String> consumer) {
+        table.suggest(prefix, limit, consumer);
+    }
+
+    public int size() {
+        return table.count();
+    }
+
+    private void force() {
+        long start = System.nanoTime();
+        table.force();
+        PvdMetrics.SAVE_WRITE.observeSince(start);
+    }
+
+    // ---------- подгрузка ----------
+
+    @Override
+    public PlayerRecord load(UUID uuid) {
+        int row = table.find(uuid);
+        return row >= 0 ? read(row) : null;
+    }
+
+    @Override
+    public PlayerRecord loadByName(String key) {
+        int row = table.findByName(key);
+        return row >= 0 ? read(row) : null;
+    }
+
+    private PlayerRecord read(int row) {
+        PlayerRecord record = new PlayerRecord(table.uuid(row), table.name(row), table.isProvisional(row));
+        record.weekSeconds = table.seconds(row);
+        record.pvd = table.isPvd(row);
+        record.slot = row;
+        return record;
+    }
+
+    // ---------- изменения хранилища ----------
+
+    @Override
+    public void onPlayer(PlayerRecord record) {
+        if (record.slot < 0) {
+            writeNew(record);
+            return;
+        }
+        // Привязка к UUID, смена ника или слияние с записью, созданной по нику
+        if (!table.uuid(record.slot).equals(record.uuid)) {
+            table.bind(record.slot, record.uuid);
+        }
+        if (!table.name(record.slot).equals(record.name)) {
+            table.rename(record.slot, record.name);
+        }
+        table.setSeconds(record.slot, record.weekSeconds);
+        table.setPvd(record.slot, record.pvd);
+    }
+
+    @Override
+    public void onRemove(PlayerRecord record) {
+        if (record.slot >= 0) {
+            table.remove(record.slot);
+            record.slot = -1;
+        }
+    }
+
+    @Override
+    public void onAddSeconds(PlayerRecord record, long seconds) {
+        table.setSeconds(record.slot, record.weekSeconds);
+    }
+
+    @Override
+    public void onSetSeconds(PlayerRecord record, long seconds) {
+        table.setSeconds(record.slot, record.weekSeconds);
+    }
+
+    @Override
+    public void onPvd(PlayerRecord record, boolean pvd) {
+        table.setPvd(record.slot, pvd);
+    }
+
+    @Override
+    public void onClearAll() {
+        table.clearAll();
+    }
+
+    @Override
+    public void onStartWeek(String weekId) {
+        table.startWeek(weekId);
+    }
+
+    private void writeNew(PlayerRecord record) {
+        record.slot = table.insert(record.uuid, record.name, record.provisional);
+        table.setSeconds(record.slot, record.weekSeconds);
+        table.setPvd(record.slot, record.pvd);
+    }
+}
@@ -0,0 +1,132 @@
+package org.example.pvdtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// Индекс ников для подсказок в командах: все известные игроки, отсортированные по нику без учета регистра.
+// Подсказка по префиксу - срез дерева не длиннее limit, без обхода всех игроков.
+//
+// В режиме "mapped" игроки, которые есть только в players.dat, в дерево не копируются: их подсказки дает
+// отсортированный индекс таблицы вне кучи (Stored), и два среза не длиннее limit сливаются по алфавиту.
+//
+// Обновляется событиями хранилища. Ключ ника принадлежит одному UUID; при смене ника старый ключ
+// находится по UUID и удаляется, только если он все еще за этим игроком.
+public class NameIndex implements PlaytimeStore.Listener {
+
+    public static final int SUGGESTION_LIMIT = 50;
+
+    private static final class Entry {
+        final UUID uuid;
+        final String name;
+
+        Entry(UUID uuid, String name) {
+            this.uuid = uuid;
+            this.name = name;
+        }
+    }
+
+    // Ники вне этого индекса, тоже по алфавиту и не больше limit
+    public interface Stored {
+        void suggest(String prefix, int limit, Consumer<String> consumer);
+    }
+
+    private final TreeMap<String, Entry> names = new TreeMap<>();   // ник в нижнем регистре -> игрок
+    private final Map<UUID, String> keys = new HashMap<>();         // UUID -> его ключ в names
+    private Stored stored = (prefix, limit, consumer) -> {};
+
+    public void setStored(Stored stored) {
+        this.stored = stored;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public void rebuild(PlaytimeStore store) {
+        names.clear();
+        keys.clear();
+        for (PlayerRecord record : store.records()) {
+            add(record.uuid, record.name);
+        }
+    }
+
+    public void add(UUID uuid, String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        String old = keys.put(uuid, key);
+        if (old != null && !old.equals(key)) {
+            removeKey(old, uuid);
+        }
+        Entry previous = names.put(key, new Entry(uuid, name));
+        if (previous != null && !previous.uuid.equals(uuid) && key.equals(keys.get(previous.uuid))) {
+            // Ник перешел к другому игроку (или запись по нику получила настоящий UUID)
+            keys.remove(previous.uuid);
+        }
+    }
+
+    public void remove(UUID uuid) {
+        String key = keys.remove(uuid);
+        if (key != null) {
+            removeKey(key, uuid);
+        }
+    }
+
+    // Ники, начинающиеся с prefix (без учета регистра), по алфавиту, не больше limit
+    public void suggest(String prefix, int limit, Consumer<String> consumer) {
+        String from = prefix.toLowerCase(Locale.ROOT);
+        List<String> own = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : names.tailMap(from, true).entrySet()) {
+            if (own.size() >= limit || !e.getKey().startsWith(from)) {
+                break;
+            }
+            own.add(e.getValue().name);
+        }
+        List<String> other = new ArrayList<>();
+        stored.suggest(prefix, limit, other::add);
+
+        // Слияние двух отсортированных списков; один ник в обоих (игрок есть и в памяти) - один раз
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        String last = null;
+        while (count < limit && (i < own.size() || j < other.size())) {
+            String name;
+            if (j >= other.size() || i < own.size()
+                    && own.get(i).toLowerCase(Locale.ROOT).compareTo(other.get(j).toLowerCase(Locale.ROOT)) <= 0) {
+                name = own.get(i++);
+            } else {
+                name = other.get(j++);
+            }
+            String key = name.toLowerCase(Locale.ROOT);
+            if (!key.equals(last)) {
+                consumer.accept(name);
+                last = key;
+                count++;
+            }
+        }
+    }
+
+    private void removeKey(String key, UUID uuid) {
+        Entry entry = names.get(key);
+        if (entry != null && entry.uuid.equals(uuid)) {
+            names.remove(key);
+        }
+    }
+
+    // ---------- события хранилища ----------
+
+    @Override
+    public void onPlayer(PlayerRecord record) {
+        add(record.uuid, record.name);
+    }
+
+    @Override
+    public void onRemove(PlayerRecord record) {
+        remove(record.uuid);
+    }
+}
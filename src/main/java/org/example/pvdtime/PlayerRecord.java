@@ -0,0 +1,47 @@
+package org.example.pvdtime;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+// Данные одного игрока. Счетчики хранятся примитивами, чтобы прибавление времени ничего не аллоцировало
+public final class PlayerRecord {
+
+    UUID uuid;
+    String name;
+    String nameKey;                 // ник в нижнем регистре - ключ индекса по нику
+    boolean provisional;            // UUID вычислен по нику, настоящий еще неизвестен (игрок не заходил)
+    long weekSeconds;               // секунды за текущую неделю хранилища
+    boolean pvd;
+    Map<String, Long> otherWeeks;   // чужие недели из старого lastlog.json, только чтобы не потерять их при сохранении
+    int leaderboardIndex = -1;      // позиция в Leaderboard, -1 - нет в таблице
+    int slot = -1;                  // номер записи в MappedPlayerTable (режим "mapped")
+    int epoch;                      // поколение счетчиков хранилища; счетчики из старого поколения считаются нулями
+
+    PlayerRecord(UUID uuid, String name, boolean provisional) {
+        this.uuid = uuid;
+        this.name = name;
+        this.nameKey = name.toLowerCase(Locale.ROOT);
+        this.provisional = provisional;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getWeekSeconds() {
+        return weekSeconds;
+    }
+
+    public long getWeekMinutes() {
+        return weekSeconds / 60;
+    }
+
+    public boolean isPvd() {
+        return pvd;
+    }
+}
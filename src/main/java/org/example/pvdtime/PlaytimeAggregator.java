@@ -0,0 +1,183 @@
+package org.example.pvdtime;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Агрегатор времени для сети серверов (см. PlaytimeSync). Отдельный процесс без Minecraft:
+//
+//   java -cp pvdtime.jar org.example.pvdtime.PlaytimeAggregator [порт] [адрес]
+//
+// По умолчанию слушает 127.0.0.1:25590. Хранит только текущую неделю и только в памяти: после
+// перезапуска каждый сервер при подключении заново присылает свою неделю целиком.
+// Неделя переключается, когда приходит пачка с более новой неделей; пачки со старой игнорируются.
+public class PlaytimeAggregator implements Closeable {
+
+    public static final int DEFAULT_PORT = 25590;
+
+    private final ServerSocket serverSocket;
+    private final Set<Socket> clients = new HashSet<>();
+    private String weekId = "";
+    private final Map<String, Map<UUID, Long>> servers = new HashMap<>();  // сервер -> игрок -> секунды
+    private final Map<UUID, Long> totals = new HashMap<>();                // сумма по всем серверам
+
+    public PlaytimeAggregator(InetSocketAddress address) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        InetAddress host = InetAddress.getByName(args.length > 1 ? args[1] : "127.0.0.1");
+        PlaytimeAggregator aggregator = new PlaytimeAggregator(new InetSocketAddress(host, port));
+        System.out.println("[PVDTime] Агрегатор слушает " + host.getHostAddress() + ":" + aggregator.getPort());
+        aggregator.run();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Принимает подключения, пока не вызван close(). Серверов немного, поэтому на каждого - свой поток.
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                synchronized (clients) {
+                    clients.add(socket);
+                }
+                Thread thread = new Thread(() -> serve(socket), "PVDTime-aggregator-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (SocketException e) {
+                return;     // close()
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Запуск в фоне (для проверки с локальным экземпляром)
+    public PlaytimeAggregator start() {
+        Thread thread = new Thread(this::run, "PVDTime-aggregator");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (clients) {
+            for (Socket socket : clients) {
+                socket.close();
+            }
+            clients.clear();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    return;     // сервер отключился
+                }
+                if (magic != PlaytimeSync.MAGIC || in.readByte() != PlaytimeSync.VERSION) {
+                    System.out.println("[PVDTime] Неизвестный протокол от " + socket.getRemoteSocketAddress());
+                    return;
+                }
+                String serverId = in.readUTF();
+                String week = in.readUTF();
+                boolean reset = (in.readByte() & PlaytimeSync.FLAG_RESET) != 0;
+
+                int count = in.readInt();
+                UUID[] uuids = new UUID[count];
+                long[] seconds = new long[count];
+                for (int i = 0; i < count; i++) {
+                    uuids[i] = new UUID(in.readLong(), in.readLong());
+                    seconds[i] = in.readLong();
+                }
+                int queries = in.readInt();
+                UUID[] asked = new UUID[queries];
+                for (int i = 0; i < queries; i++) {
+                    asked[i] = new UUID(in.readLong(), in.readLong());
+                }
+
+                long[] others = new long[count + queries];
+                apply(serverId, week, reset, uuids, seconds, asked, others);
+
+                out.writeInt(others.length);
+                for (long value : others) {
+                    out.writeLong(value);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("[PVDTime] Соединение с " + socket.getRemoteSocketAddress() + " закрыто: " + e.getMessage());
+        } finally {
+            synchronized (clients) {
+                clients.remove(socket);
+            }
+        }
+    }
+
+    // Применяет пачку и заполняет others: время каждого игрока из пачки на остальных серверах
+    synchronized void apply(String serverId, String week, boolean reset, UUID[] uuids, long[] seconds, UUID[] asked, long[] others) {
+        // Номера недель вида 2026-W05 сравниваются как строки
+        int order = week.compareTo(weekId);
+        if (order < 0) {
+            return;     // запоздавшая пачка прошлой недели - отвечаем нулями
+        }
+        if (order > 0) {
+            weekId = week;
+            servers.clear();
+            totals.clear();
+        }
+
+        Map<UUID, Long> server = servers.computeIfAbsent(serverId, id -> new HashMap<>());
+        if (reset) {
+            for (Map.Entry<UUID, Long> e : server.entrySet()) {
+                add(e.getKey(), -e.getValue());
+            }
+            server.clear();
+        }
+        for (int i = 0; i < uuids.length; i++) {
+            Long previous = seconds[i] > 0 ? server.put(uuids[i], seconds[i]) : server.remove(uuids[i]);
+            add(uuids[i], seconds[i] - (previous != null ? previous : 0));
+        }
+
+        for (int i = 0; i < uuids.length; i++) {
+            others[i] = others(server, uuids[i]);
+        }
+        for (int i = 0; i < asked.length; i++) {
+            others[uuids.length + i] = others(server, asked[i]);
+        }
+    }
+
+    private long others(Map<UUID, Long> server, UUID uuid) {
+        return totals.getOrDefault(uuid, 0L) - server.getOrDefault(uuid, 0L);
+    }
+
+    private void add(UUID uuid, long delta) {
+        long total = totals.getOrDefault(uuid, 0L) + delta;
+        if (total > 0) {
+            totals.put(uuid, total);
+        } else {
+            totals.remove(uuid);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.example.pvdtime;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// Выгрузка времени игроков в playtime_logs/exports/ (pvd export): CSV или NDJSON (объект JSON на строку),
+// по строке на игрока и неделю - week, rank, uuid, name, seconds, pvd.
+//
+// На тике снимается только текущая неделя, и то из таблицы лидеров (активные за неделю, уже по порядку).
+// Недели архива читаются в своем потоке по одной прямо из отображенных в память файлов и сразу пишутся
+// в буферизованный файл - память не растет с числом недель. Файл появляется под своим именем только
+// целиком (через .tmp), так что скрипты не подхватят недописанный. Одновременно идет одна выгрузка.
+public class PlaytimeExport {
+
+    public enum Format {
+        CSV("csv"), NDJSON("ndjson");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        // null - неизвестный формат
+        public static Format parse(String value) {
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(value)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final long PROGRESS_MILLIS = 2000;     // не чаще раза в 2 с в чат
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.ROOT);
+
+    // Текущая неделя на момент команды
+    public static final class CurrentWeek {
+        final String weekId;
+        final UUID[] uuids;
+        final String[] names;
+        final long[] seconds;
+        final boolean[] pvd;
+
+        CurrentWeek(String weekId, int size) {
+            this.weekId = weekId;
+            this.uuids = new UUID[size];
+            this.names = new String[size];
+            this.seconds = new long[size];
+            this.pvd = new boolean[size];
+        }
+    }
+
+    private final Path directory;
+    private final WeekArchive archive;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PVDTime-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PlaytimeExport(Path directory, WeekArchive archive) {
+        this.directory = directory;
+        this.archive = archive;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    // Недели для range, от старых к новым; null - range не разобран.
+    //   current   - текущая неделя
+    //   <N>w      - последние N недель вместе с текущей
+    //   all       - весь архив и текущая неделя
+    //   2025-W10  - одна неделя (архив или текущая)
+    public static List<String> weeks(String range, WeekArchive archive, String currentWeekId) {
+        List<String> weeks = new ArrayList<>();
+        if (range.equalsIgnoreCase("current")) {
+            weeks.add(currentWeekId);
+        } else if (range.equalsIgnoreCase("all")) {
+            for (String week : archive.weeks()) {
+                if (!week.equals(currentWeekId)) {
+                    weeks.add(week);
+                }
+            }
+            weeks.add(currentWeekId);
+        } else if (range.matches("\\d{1,3}[wW]")) {
+            int count = Integer.parseInt(range.substring(0, range.length() - 1));
+            if (count < 1) {
+                return null;
+            }
+            for (String week : archive.lastWeeks(count)) {
+                if (!week.equals(currentWeekId)) {
+                    weeks.add(0, week);
+                }
+            }
+            while (weeks.size() > count - 1) {
+                weeks.remove(0);
+            }
+            weeks.add(currentWeekId);
+        } else if (range.equalsIgnoreCase(currentWeekId)) {
+            weeks.add(currentWeekId);
+        } else if (archive.has(range)) {
+            weeks.add(range);
+        } else {
+            return null;
+        }
+        return weeks;
+    }
+
+    // Вызывается на тике: копия активных за неделю, таблица лидеров уже отсортирована
+    public static CurrentWeek snapshot(Leaderboard leaderboard, String weekId) {
+        CurrentWeek week = new CurrentWeek(weekId, leaderboard.size());
+        for (int i = 0; i < leaderboard.size(); i++) {
+            PlayerRecord record = leaderboard.get(i);
+            week.uuids[i] = record.getUuid();
+            week.names[i] = record.getName();
+            week.seconds[i] = record.getWeekSeconds();
+            week.pvd[i] = record.isPvd();
+        }
+        return week;
+    }
+
+    // Имя будущего файла относительно playtime_logs
+    public static String fileName(String range, Format format, long nowMillis, ZoneId zone) {
+        String stamp = STAMP.format(Instant.ofEpochMilli(nowMillis).atZone(zone));
+        return "exports/pvd_" + range.replaceAll("[^A-Za-z0-9-]", "_") + "_" + stamp + "." + format.extension;
+    }
+
+    // Вызывается на тике. current - снимок текущей недели, если она входит в weeks (иначе null).
+    // progress выполняется в mainThread; false - предыдущая выгрузка еще не закончилась.
+    public boolean start(String fileName, Format format, List<String> weeks, CurrentWeek current,
+                         Executor mainThread, Consumer<String> progress) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Path target = directory.resolve(fileName);
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            long[] rows = new long[1];
+            try {
+                long bytes = PlaytimeWriter.writeAtomically(target, writer -> {
+                    if (format == Format.CSV) {
+                        writer.write("week,rank,uuid,name,seconds,pvd\n");
+                    }
+                    long lastProgress = System.currentTimeMillis();
+                    for (int w = 0; w < weeks.size(); w++) {
+                        String weekId = weeks.get(w);
+                        rows[0] += current != null && weekId.equals(current.weekId)
+                                ? writeCurrent(writer, format, current)
+                                : writeArchived(writer, format, weekId);
+                        long now = System.currentTimeMillis();
+                        if (now - lastProgress >= PROGRESS_MILLIS && w + 1 < weeks.size()) {
+                            lastProgress = now;
+                            String text = "§7Экспорт: неделя " + (w + 1) + "/" + weeks.size() + ", строк: " + rows[0];
+                            mainThread.execute(() -> progress.accept(text));
+                        }
+                    }
+                });
+                PvdMetrics.BYTES_EXPORT.add(bytes);
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                System.out.println("[PVDTime] Экспорт " + fileName + ": " + rows[0] + " строк, " + bytes + " байт, " + millis + " мс");
+                String text = "§6Экспорт готов: §e" + fileName + " §7(" + weeks.size() + " нед., " + rows[0] + " строк, "
+                        + Math.max(1, bytes / 1024) + " КБ)";
+                mainThread.execute(() -> progress.accept(text));
+            } catch (Throwable e) {
+                PvdMetrics.WRITE_ERRORS.add(1);
+                e.printStackTrace();
+                mainThread.execute(() -> progress.accept("§cОшибка при экспорте: " + e.getMessage()));
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // ---------- в потоке выгрузки ----------
+
+    private static long writeCurrent(Writer writer, Format format, CurrentWeek week) throws IOException {
+        for (int i = 0; i < week.uuids.length; i++) {
+            writeRow(writer, format, week.weekId, i + 1, week.uuids[i], week.names[i], week.seconds[i], week.pvd[i]);
+        }
+        return week.uuids.length;
+    }
+
+    // Записи архива уже отсортированы по убыванию времени
+    private long writeArchived(Writer writer, Format format, String weekId) throws IOException {
+        WeekArchive.ArchivedWeek week = archive.get(weekId);
+        if (week == null) {
+            return 0;   // неделю удалили, пока шла выгрузка
+        }
+        for (int i = 0; i < week.size(); i++) {
+            writeRow(writer, format, weekId, i + 1, week.uuid(i), week.name(i), week.seconds(i), week.pvd(i));
+        }
+        return week.size();
+    }
+
+    private static void writeRow(Writer writer, Format format, String weekId, int rank, UUID uuid, String name,
+                                 long seconds, boolean pvd) throws IOException {
+        if (format == Format.CSV) {
+            writer.write(weekId);
+            writer.write(',');
+            writer.write(Integer.toString(rank));
+            writer.write(',');
+            writer.write(uuid.toString());
+            writer.write(',');
+            writer.write(csv(name));
+            writer.write(',');
+            writer.write(Long.toString(seconds));
+            writer.write(',');
+            writer.write(pvd ? "true" : "false");
+            writer.write('\n');
+        } else {
+            JsonObject row = new JsonObject();
+            row.addProperty("week", weekId);
+            row.addProperty("rank", rank);
+            row.addProperty("uuid", uuid.toString());
+            row.addProperty("name", name);
+            row.addProperty("seconds", seconds);
+            row.addProperty("pvd", pvd);
+            writer.write(row.toString());
+            writer.write('\n');
+        }
+    }
+
+    // Ники Minecraft в кавычках не нуждаются, но в старых архивах бывало всякое
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
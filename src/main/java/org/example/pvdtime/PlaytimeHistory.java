@@ -0,0 +1,570 @@
+package org.example.pvdtime;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+// Время игроков за последние дни и за все время - без чтения архивов недель.
+//
+// У каждого игрока, наигравшего что-то за последние DAYS дней, кольцо секунд по дням, у всех - сумма
+// за все время. Обновляется тем же событием хранилища, что и счетчик недели (прибавка времени сессии),
+// так что на тике это пара сложений. Кольцо сдвигается лениво, при следующей прибавке или запросе:
+// дни между последней записью и сегодняшним днем обнуляются. Кольцо игрока, который не играл
+// DAYS дней, освобождается - память на игрока ограничена одним кольцом.
+//
+// Суммы за все время только растут, поэтому держатся отсортированным массивом, как Leaderboard:
+// прибавка сдвигает игрока на несколько позиций вверх, топ - срез массива. Запрос за период обходит
+// только игроков с кольцом (активных за DAYS дней), а не всех.
+//
+// Правки админа (pvd settings time set/clear) и сброс недели историю не меняют: в ней только наигранное.
+//
+// Хранится в своих файлах независимо от режима хранения недели: снимок history.bin и журнал history.log.
+// На тике при сохранении копируются только изменившиеся игроки (обычно это онлайн), поток записи
+// дописывает их строки целиком в журнал - объем записи пропорционален изменениям, а не всем игрокам.
+// Когда журнал перерастает снимок, поток записи сворачивает их в новый history.bin: старый снимок
+// читается потоком и строки из журнала подставляются на ходу, в памяти - только строки журнала.
+//
+// Строка журнала: [int длина][int DAYS][строка][int CRC32]. Строка - полное состояние игрока, поэтому
+// повтор после падения безопасен, а недописанный хвост отбрасывается по длине/CRC.
+public class PlaytimeHistory implements PlaytimeStore.Listener {
+
+    public static final int DAYS = 30;
+
+    private static final int MAGIC = 0x50564448;    // "PVDH"
+    private static final int FORMAT = 1;
+    private static final long COMPACT_MIN_BYTES = 1 << 20;  // журнал меньше этого не сворачивается
+
+    private static final class Entry {
+        final UUID uuid;
+        String name;
+        long totalSeconds;
+        int order = -1;     // позиция в order
+        int day;            // день (epoch day) последней ячейки кольца
+        int[] days;         // секунды по дням, индекс - день % DAYS; null - не играл последние DAYS дней
+        boolean active;     // есть в списке active
+        boolean dirty;      // изменилась после последнего сохранения
+
+        Entry(UUID uuid, String name) {
+            this.uuid = uuid;
+            this.name = name;
+        }
+    }
+
+    private final Path file;
+    private final Path logFile;
+    private final PlaytimeWriter writer;
+    private final Map<UUID, Entry> entries = new HashMap<>();
+    private Entry[] order = new Entry[64];              // по убыванию суммы за все время
+    private int size;
+    private final ArrayList<Entry> active = new ArrayList<>();  // у кого есть кольцо
+    private final ArrayList<Entry> dirty = new ArrayList<>();   // изменившиеся с последнего сохранения
+    private int today;
+
+    // Поток записи (и load до его запуска)
+    private FileChannel log;
+    private long logBytes;
+    private long baseBytes;
+
+    public PlaytimeHistory(Path file, PlaytimeWriter writer, int today) {
+        this.file = file;
+        this.logFile = file.resolveSibling(stripExtension(file.getFileName().toString()) + ".log");
+        this.writer = writer;
+        this.today = today;
+    }
+
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Вызывается на тике при смене суток; сами кольца сдвигаются лениво
+    public void setToday(int today) {
+        this.today = today;
+    }
+
+    // День (epoch day) по времени сервера
+    public static int dayOf(long nowMillis, ZoneId zone) {
+        return (int) LocalDate.ofInstant(Instant.ofEpochMilli(nowMillis), zone).toEpochDay();
+    }
+
+    // Момент начала следующих суток (00:00 по времени сервера)
+    public static long nextDayStartMillis(long nowMillis, ZoneId zone) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(nowMillis), zone)
+                .plusDays(1)
+                .atStartOfDay(zone)
+                .toInstant()
+                .toEpochMilli();
+    }
+
+    // Все, кто играл за последние days дней (включая сегодня), без сортировки - ее делает сборка
+    // текста вне тика. Заодно выбрасывает из списка активных тех, чье кольцо целиком устарело.
+    public List<PlaytimeViews.Row> range(int days) {
+        List<PlaytimeViews.Row> result = new ArrayList<>();
+        for (int i = active.size() - 1; i >= 0; i--) {
+            Entry entry = active.get(i);
+            if (!advance(entry)) {
+                Entry last = active.remove(active.size() - 1);
+                if (last != entry) {
+                    active.set(i, last);
+                }
+                entry.active = false;
+                continue;
+            }
+            long sum = 0;
+            for (int d = Math.max(today - days + 1, entry.day - DAYS + 1); d <= entry.day; d++) {
+                sum += entry.days[d % DAYS];
+            }
+            if (sum > 0) {
+                result.add(new PlaytimeViews.Row(entry.name, sum, false));
+            }
+        }
+        return result;
+    }
+
+    // Первые count по времени за все время - срез отсортированного массива
+    public List<PlaytimeViews.Row> allTime(int count) {
+        count = Math.min(count, size);
+        List<PlaytimeViews.Row> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new PlaytimeViews.Row(order[i].name, order[i].totalSeconds, false));
+        }
+        return result;
+    }
+
+    // Первый запуск без history.bin: сумма за все время по архиву недель и текущей неделе
+    // (по дням архив не разложить). Суммы копятся без сдвигов, массив сортируется один раз в конце.
+    // Возвращает число прочитанных недель.
+    public int seed(WeekArchive archive, PlaytimeStore store) {
+        int weeks = 0;
+        for (String weekId : archive.weeks()) {
+            try {
+                WeekArchive.ArchivedWeek week = archive.get(weekId);
+                if (week == null || weekId.equals(store.getWeekId())) {
+                    continue;
+                }
+                for (int i = 0; i < week.size(); i++) {
+                    if (week.seconds(i) > 0) {
+                        entry(week.uuid(i), week.name(i)).totalSeconds += week.seconds(i);
+                    }
+                }
+                weeks++;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (PlayerRecord record : store.records()) {
+            if (record.weekSeconds > 0) {
+                entry(record.uuid, record.name).totalSeconds += record.weekSeconds;
+            }
+        }
+        sortAll();
+        for (int i = 0; i < size; i++) {
+            markDirty(order[i]);
+        }
+        return weeks;
+    }
+
+    private Entry entry(UUID uuid, String name) {
+        Entry entry = entries.get(uuid);
+        if (entry == null) {
+            entry = new Entry(uuid, name);
+            entries.put(uuid, entry);
+            ensureCapacity(size + 1);
+            entry.order = size;
+            order[size++] = entry;
+        }
+        return entry;
+    }
+
+    private void markDirty(Entry entry) {
+        if (!entry.dirty) {
+            entry.dirty = true;
+            dirty.add(entry);
+        }
+    }
+
+    // После загрузки целиком
+    private void sortAll() {
+        Arrays.sort(order, 0, size, (a, b) -> Long.compare(b.totalSeconds, a.totalSeconds));
+        for (int i = 0; i < size; i++) {
+            order[i].order = i;
+        }
+    }
+
+    // Сдвигает кольцо к сегодняшнему дню; false - кольца нет (или оно целиком устарело и освобождено)
+    private boolean advance(Entry entry) {
+        if (entry.days == null) {
+            return false;
+        }
+        if (today <= entry.day) {
+            return true;
+        }
+        if (today - entry.day >= DAYS) {
+            entry.days = null;
+            return false;
+        }
+        for (int d = entry.day + 1; d <= today; d++) {
+            entry.days[d % DAYS] = 0;
+        }
+        entry.day = today;
+        return true;
+    }
+
+    // Сумма выросла: встаем перед первым, у кого меньше (после равных)
+    private void moveUp(Entry entry) {
+        int index = entry.order;
+        long value = entry.totalSeconds;
+        int low = 0;
+        int high = index;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (order[middle].totalSeconds < value) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        if (low < index) {
+            System.arraycopy(order, low, order, low + 1, index - low);
+            order[low] = entry;
+            for (int i = low; i <= index; i++) {
+                order[i].order = i;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > order.length) {
+            order = Arrays.copyOf(order, Math.max(order.length * 2, capacity));
+        }
+    }
+
+    // ---------- события хранилища ----------
+
+    @Override
+    public void onAddSeconds(PlayerRecord record, long seconds) {
+        if (seconds <= 0) {
+            return;
+        }
+        Entry entry = entry(record.uuid, record.name);
+        entry.name = record.name;
+        entry.totalSeconds += seconds;
+        moveUp(entry);
+        if (!advance(entry)) {
+            entry.days = new int[DAYS];
+            entry.day = today;
+            if (!entry.active) {
+                entry.active = true;
+                active.add(entry);
+            }
+        }
+        // Если часы ушли назад, время пишется в последний день кольца
+        entry.days[Math.max(today, entry.day) % DAYS] += (int) seconds;
+        markDirty(entry);
+    }
+
+    @Override
+    public void onPlayer(PlayerRecord record) {
+        // Смена ника
+        Entry entry = entries.get(record.uuid);
+        if (entry != null && !entry.name.equals(record.name)) {
+            entry.name = record.name;
+            markDirty(entry);
+        }
+    }
+
+    // ---------- файл ----------
+
+    // false - нет ни снимка, ни журнала (первый запуск с историей)
+    public boolean load() {
+        boolean found = false;
+        try {
+            if (Files.exists(file)) {
+                readBase(file, this::apply);
+                baseBytes = Files.size(file);
+                found = true;
+            }
+            if (Files.exists(logFile)) {
+                long valid = readLog(logFile, this::apply);
+                if (valid < Files.size(logFile)) {
+                    // Недописанный хвост - новые строки должны лечь сразу за последней целой
+                    try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                        channel.truncate(valid);
+                    }
+                }
+                logBytes = valid;
+                found = true;
+            }
+        } catch (IOException e) {
+            // Пустая история затерла бы файл при следующем сворачивании
+            throw new IllegalStateException("Не удалось прочитать " + file, e);
+        }
+        if (!found) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            Entry entry = order[i];
+            if (entry.days != null && advance(entry)) {
+                entry.active = true;
+                active.add(entry);
+            }
+        }
+        sortAll();
+        return true;
+    }
+
+    // Строка из снимка или журнала - полное состояние игрока, более поздняя заменяет раннюю
+    private void apply(Row row) {
+        Entry entry = entry(row.uuid, row.name);
+        entry.name = row.name;
+        entry.totalSeconds = row.totalSeconds;
+        entry.day = row.day;
+        entry.days = row.days;
+    }
+
+    private static int[] resize(int[] ring, int lastDay) {
+        int[] resized = new int[DAYS];
+        for (int d = lastDay - Math.min(ring.length, DAYS) + 1; d <= lastDay; d++) {
+            resized[d % DAYS] = ring[d % ring.length];
+        }
+        return resized;
+    }
+
+    // Кольцо другой длины (DAYS поменяли) раскладываем по дням заново
+    private static Row fit(Row row, int days) {
+        return days != DAYS && row.days != null
+                ? new Row(row.uuid, row.name, row.totalSeconds, row.day, resize(row.days, row.day))
+                : row;
+    }
+
+    // Возвращает число строк снимка
+    private static int readBase(Path path, RowSink consumer) throws IOException {
+        try (InputStream raw = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("Неизвестный формат " + path);
+            }
+            int days = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                consumer.accept(fit(Row.read(in, days), days));
+            }
+            return count;
+        }
+    }
+
+    // Возвращает длину целой части журнала
+    private static long readLog(Path path, RowSink consumer) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= 4) {
+            int start = data.position();
+            int length = data.getInt();
+            if (length <= 4 || data.remaining() < length + 4) {
+                System.out.println("[PVDTime] Обрезанная строка в " + path.getFileName() + ", остаток пропущен");
+                return start;
+            }
+            crc.reset();
+            crc.update(data.array(), start + 4, length);
+            if ((int) crc.getValue() != data.getInt(start + 4 + length)) {
+                System.out.println("[PVDTime] Поврежденная строка в " + path.getFileName() + ", остаток пропущен");
+                return start;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data.array(), start + 4, length));
+            int days = in.readInt();
+            consumer.accept(fit(Row.read(in, days), days));
+            data.position(start + 4 + length + 4);
+        }
+        return data.position();
+    }
+
+    // На тике копируются только изменившиеся строки; поток записи дописывает их в журнал
+    public void save() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        Row[] rows = new Row[dirty.size()];
+        for (int i = 0; i < rows.length; i++) {
+            Entry entry = dirty.get(i);
+            entry.dirty = false;
+            rows[i] = new Row(entry.uuid, entry.name, entry.totalSeconds, entry.day,
+                    entry.days != null ? entry.days.clone() : null);
+        }
+        dirty.clear();
+        writer.execute(() -> append(rows));
+    }
+
+    // При остановке, после последнего save()
+    public void close() {
+        writer.execute(this::closeLog);
+    }
+
+    // В потоке записи
+    private void append(Row[] rows) {
+        try {
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(rows.length * 192);
+            DataOutputStream out = new DataOutputStream(chunk);
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(192);
+            DataOutputStream frameOut = new DataOutputStream(frame);
+            CRC32 crc = new CRC32();
+            for (Row row : rows) {
+                frame.reset();
+                frameOut.writeInt(DAYS);
+                row.write(frameOut);
+                frameOut.flush();
+                byte[] bytes = frame.toByteArray();
+                crc.reset();
+                crc.update(bytes);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeInt((int) crc.getValue());
+            }
+            out.flush();
+
+            if (log == null) {
+                log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer data = ByteBuffer.wrap(chunk.toByteArray());
+            while (data.hasRemaining()) {
+                log.write(data);
+            }
+            log.force(false);
+            logBytes += chunk.size();
+            PvdMetrics.BYTES_HISTORY.add(chunk.size());
+
+            if (logBytes >= Math.max(COMPACT_MIN_BYTES, baseBytes)) {
+                compact();
+            }
+        } catch (IOException e) {
+            PvdMetrics.WRITE_ERRORS.add(1);
+            e.printStackTrace();
+        }
+    }
+
+    // В потоке записи: снимок + журнал -> новый снимок. Строки снимка читаются потоком,
+    // в памяти только строки журнала (он не больше снимка).
+    private void compact() throws IOException {
+        closeLog();
+        Map<UUID, Row> changed = new HashMap<>();
+        readLog(logFile, row -> changed.put(row.uuid, row));
+        boolean hasBase = Files.exists(file);
+
+        // Первый проход - только число строк для заголовка
+        Set<UUID> replaced = new HashSet<>();
+        int baseCount = hasBase ? readBase(file, row -> {
+            if (changed.containsKey(row.uuid)) {
+                replaced.add(row.uuid);
+            }
+        }) : 0;
+        int count = baseCount + changed.size() - replaced.size();
+
+        // Старый снимок остается на месте, пока новый не подменит его целиком
+        long bytes = PlaytimeWriter.writeBinaryAtomically(file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(DAYS);
+            out.writeInt(count);
+            if (hasBase) {
+                readBase(file, row -> {
+                    Row current = changed.remove(row.uuid);
+                    (current != null ? current : row).write(out);
+                });
+            }
+            for (Row row : changed.values()) {
+                row.write(out);
+            }
+            out.flush();
+        });
+        Files.deleteIfExists(logFile);
+        logBytes = 0;
+        baseBytes = bytes;
+        PvdMetrics.BYTES_HISTORY.add(bytes);
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            log = null;
+        }
+    }
+
+    private interface RowSink {
+        void accept(Row row) throws IOException;
+    }
+
+    // Строка файла: неизменяемая копия Entry на момент сохранения
+    private static final class Row {
+        final UUID uuid;
+        final String name;
+        final long totalSeconds;
+        final int day;
+        final int[] days;
+
+        Row(UUID uuid, String name, long totalSeconds, int day, int[] days) {
+            this.uuid = uuid;
+            this.name = name;
+            this.totalSeconds = totalSeconds;
+            this.day = day;
+            this.days = days;
+        }
+
+        static Row read(DataInputStream in, int length) throws IOException {
+            UUID uuid = new UUID(in.readLong(), in.readLong());
+            String name = in.readUTF();
+            long totalSeconds = in.readLong();
+            int day = in.readInt();
+            int[] days = null;
+            if (in.readBoolean()) {
+                days = new int[length];
+                for (int d = 0; d < length; d++) {
+                    days[d] = in.readInt();
+                }
+            }
+            return new Row(uuid, name, totalSeconds, day, days);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+            out.writeUTF(name);
+            out.writeLong(totalSeconds);
+            out.writeInt(day);
+            out.writeBoolean(days != null);
+            if (days != null) {
+                for (int seconds : days) {
+                    out.writeInt(seconds);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.pvdtime;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// Что отправлено в HUD каждому онлайн-игроку с модом на клиенте. update() вызывается для игрока
+// раз в период (работа размазана по тикам планировщиком) и возвращает пакет, только если
+// что-то из показанного изменилось - время меняется раз в минуту, так что чаще всего пакета нет.
+// Игроки без мода на клиенте сюда не попадают.
+public class PlaytimeHud {
+
+    private static final class Sent {
+        boolean full = true;    // еще ничего не отправлено
+        int minutes;
+        int requiredMinutes;
+        int rank;
+        boolean pvd;
+    }
+
+    private final Map<UUID, Sent> sent = new HashMap<>();
+
+    public int size() {
+        return sent.size();
+    }
+
+    public void join(UUID uuid) {
+        sent.put(uuid, new Sent());
+    }
+
+    public void leave(UUID uuid) {
+        sent.remove(uuid);
+    }
+
+    public boolean isTracked(UUID uuid) {
+        return sent.containsKey(uuid);
+    }
+
+    // null - игрок без HUD или показанное не изменилось
+    public PlaytimeHudPayload update(UUID uuid, int minutes, int requiredMinutes, int rank, boolean pvd) {
+        Sent state = sent.get(uuid);
+        if (state == null) {
+            return null;
+        }
+        int pvdFlag = pvd ? PlaytimeHudPayload.PVD : 0;
+        PlaytimeHudPayload payload;
+        if (state.full) {
+            state.full = false;
+            payload = new PlaytimeHudPayload(PlaytimeHudPayload.FULL | PlaytimeHudPayload.MINUTES
+                    | PlaytimeHudPayload.REQUIRED | PlaytimeHudPayload.RANK | pvdFlag, minutes, requiredMinutes, rank);
+        } else {
+            int flags = 0;
+            if (minutes != state.minutes) {
+                flags |= PlaytimeHudPayload.MINUTES;
+            }
+            if (requiredMinutes != state.requiredMinutes) {
+                flags |= PlaytimeHudPayload.REQUIRED;
+            }
+            if (rank != state.rank) {
+                flags |= PlaytimeHudPayload.RANK;
+            }
+            if (flags == 0 && pvd == state.pvd) {
+                return null;
+            }
+            payload = new PlaytimeHudPayload(flags | pvdFlag, minutes - state.minutes, requiredMinutes, rank);
+        }
+        state.minutes = minutes;
+        state.requiredMinutes = requiredMinutes;
+        state.rank = rank;
+        state.pvd = pvd;
+        return payload;
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.pvdtime;
+
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+
+// Пакет для HUD клиента: время игрока за неделю, порог PVD, место в таблице и статус.
+//
+// Пакет - разница с предыдущим: в первом байте флаги, дальше VarInt только для изменившихся полей.
+// Минуты в обычном пакете - прибавка к прошлому значению (обычно +1, один байт), в полном (FULL) -
+// само значение; порог и место всегда передаются значением. Статус PVD - бит во флагах.
+// Полный пакет уходит после входа игрока, дальше только разницы; соединение TCP, так что пакеты
+// не теряются и не переставляются.
+public record PlaytimeHudPayload(int flags, int minutes, int requiredMinutes, int rank) implements CustomPayload {
+
+    public static final CustomPayload.Id<PlaytimeHudPayload> ID = new CustomPayload.Id<>(Identifier.of("pvdtime", "hud"));
+    public static final PacketCodec<PacketByteBuf, PlaytimeHudPayload> CODEC =
+            PacketCodec.of(PlaytimeHudPayload::write, PlaytimeHudPayload::read);
+
+    public static final int FULL = 1;         // значения, а не разница; клиент забывает прошлое состояние
+    public static final int MINUTES = 2;
+    public static final int REQUIRED = 4;
+    public static final int RANK = 8;
+    public static final int PVD = 16;         // значение статуса, а не признак изменения
+
+    public boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    private void write(PacketByteBuf buf) {
+        buf.writeByte(flags);
+        if (has(MINUTES)) {
+            buf.writeVarInt(minutes);
+        }
+        if (has(REQUIRED)) {
+            buf.writeVarInt(requiredMinutes);
+        }
+        if (has(RANK)) {
+            buf.writeVarInt(rank);
+        }
+    }
+
+    private static PlaytimeHudPayload read(PacketByteBuf buf) {
+        int flags = buf.readByte();
+        int minutes = (flags & MINUTES) != 0 ? buf.readVarInt() : 0;
+        int required = (flags & REQUIRED) != 0 ? buf.readVarInt() : 0;
+        int rank = (flags & RANK) != 0 ? buf.readVarInt() : 0;
+        return new PlaytimeHudPayload(flags, minutes, required, rank);
+    }
+
+    @Override
+    public CustomPayload.Id<PlaytimeHudPayload> getId() {
+        return ID;
+    }
+}
@@ -0,0 +1,352 @@
+package org.example.pvdtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+// Журнал изменений хранилища: вместо перезаписи всего lastlog.json раз в минуту
+// дописываем в конец сегмента только сами изменения (+секунды онлайн-игрокам, set, clear).
+// Раз в какое-то время журнал сворачивается в новый снимок lastlog.json, старые сегменты удаляются.
+//
+// Формат записи: [int длина][тип + данные][int CRC32 данных]. Недописанный хвост после падения
+// отбрасывается по длине/CRC.
+public class PlaytimeJournal implements PlaytimeStore.Listener {
+
+    public static final String SNAPSHOT_KEY = "#journal";
+
+    private static final byte OP_PLAYER = 'P';
+    private static final byte OP_ADD_MINUTES = 'A';     // старый формат, только для чтения
+    private static final byte OP_SET_MINUTES = 'S';     // старый формат, только для чтения
+    private static final byte OP_ADD = 'a';
+    private static final byte OP_SET = 's';
+    private static final byte OP_PVD = 'F';
+    private static final byte OP_CLEAR_ALL = 'C';
+    private static final byte OP_START_WEEK = 'W';
+
+    private final Path directory;
+    private final PlaytimeWriter writer;
+    private final CRC32 crc = new CRC32();
+
+    // Буфер записей за текущую минуту. Заполняется на потоке сервера без аллокаций.
+    private byte[] buffer = new byte[8192];
+    private int size;
+    private int frameStart;
+
+    private long segment;                   // номер сегмента, в который сейчас пишем
+    private long segmentBytes;
+    private FileChannel channel;            // открыт только в потоке записи
+    private long channelSegment = -1;
+
+    public PlaytimeJournal(Path directory, PlaytimeWriter writer, long segment) {
+        this.directory = directory;
+        this.writer = writer;
+        this.segment = segment;
+    }
+
+    public long getSegment() {
+        return segment;
+    }
+
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    // ---------- запись изменений ----------
+
+    @Override
+    public void onPlayer(PlayerRecord record) {
+        begin(OP_PLAYER);
+        putUuid(record.uuid);
+        putByte(record.provisional ? 1 : 0);
+        putString(record.name);
+        end();
+    }
+
+    @Override
+    public void onAddSeconds(PlayerRecord record, long seconds) {
+        begin(OP_ADD);
+        putUuid(record.uuid);
+        putLong(seconds);
+        end();
+    }
+
+    @Override
+    public void onSetSeconds(PlayerRecord record, long seconds) {
+        begin(OP_SET);
+        putUuid(record.uuid);
+        putLong(seconds);
+        end();
+    }
+
+    @Override
+    public void onPvd(PlayerRecord record, boolean pvd) {
+        begin(OP_PVD);
+        putUuid(record.uuid);
+        putByte(pvd ? 1 : 0);
+        end();
+    }
+
+    @Override
+    public void onClearAll() {
+        begin(OP_CLEAR_ALL);
+        end();
+    }
+
+    @Override
+    public void onStartWeek(String weekId) {
+        begin(OP_START_WEEK);
+        putString(weekId);
+        end();
+    }
+
+    // Отправляет накопленные записи в поток записи. Объем пропорционален числу изменений, а не игроков.
+    public void flush() {
+        if (size == 0) {
+            return;
+        }
+        byte[] chunk = Arrays.copyOf(buffer, size);
+        size = 0;
+        segmentBytes += chunk.length;
+        long target = segment;
+        writer.execute(() -> append(target, chunk));
+    }
+
+    // Сворачивание: начинаем новый сегмент и пишем снимок, который покрывает все предыдущие.
+    // Старые сегменты удаляются только после того, как снимок лег на диск (см. deleteSegmentsBefore).
+    public void compact(PlaytimeSnapshot snapshot) {
+        flush();
+        long next = ++segment;
+        segmentBytes = 0;
+        snapshot.journalSegment = next;
+        writer.submit(snapshot);
+    }
+
+    private void append(long number, byte[] chunk) {
+        try {
+            if (channel == null || channelSegment != number) {
+                closeChannel();
+                open(number);
+            }
+            ByteBuffer data = ByteBuffer.wrap(chunk);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+            PvdMetrics.BYTES_JOURNAL.add(chunk.length);
+        } catch (IOException e) {
+            PvdMetrics.WRITE_ERRORS.add(1);
+            e.printStackTrace();
+        }
+    }
+
+    private void open(long number) throws IOException {
+        Files.createDirectories(directory);
+        channel = FileChannel.open(segmentFile(directory, number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelSegment = number;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    // Вызывается после записи снимка: все до его сегмента уже внутри снимка
+    public static void deleteSegmentsBefore(Path directory, long number) {
+        for (long old : listSegments(directory)) {
+            if (old < number) {
+                try {
+                    Files.deleteIfExists(segmentFile(directory, old));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public void close() {
+        flush();
+        writer.execute(this::closeChannel);
+    }
+
+    // ---------- восстановление ----------
+
+    // Проигрывает все сегменты начиная с fromSegment поверх загруженного снимка.
+    // Возвращает номер последнего найденного сегмента (или fromSegment - 1, если журнала нет).
+    public static long replay(Path directory, long fromSegment, PlaytimeStore store) {
+        long last = fromSegment - 1;
+        for (long number : listSegments(directory)) {
+            if (number < fromSegment) continue;
+            last = Math.max(last, number);
+            try {
+                replaySegment(ByteBuffer.wrap(Files.readAllBytes(segmentFile(directory, number))), store);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return last;
+    }
+
+    private static void replaySegment(ByteBuffer in, PlaytimeStore store) {
+        CRC32 crc = new CRC32();
+        while (in.remaining() >= 4) {
+            int start = in.position();
+            int length = in.getInt();
+            if (length <= 0 || in.remaining() < length + 4) {
+                System.out.println("[PVDTime] Обрезанная запись в журнале, остаток пропущен");
+                return;
+            }
+            crc.reset();
+            crc.update(in.array(), start + 4, length);
+            int expected = in.getInt(start + 4 + length);
+            if ((int) crc.getValue() != expected) {
+                System.out.println("[PVDTime] Поврежденная запись в журнале, остаток пропущен");
+                return;
+            }
+
+            byte op = in.get();
+            switch (op) {
+                case OP_PLAYER -> {
+                    UUID uuid = new UUID(in.getLong(), in.getLong());
+                    boolean provisional = in.get() != 0;
+                    String name = getString(in);
+                    if (provisional) {
+                        store.getOrCreateByName(name);
+                    } else {
+                        store.getOrCreate(uuid, name);
+                    }
+                }
+                case OP_ADD, OP_SET, OP_ADD_MINUTES, OP_SET_MINUTES -> {
+                    PlayerRecord record = store.get(new UUID(in.getLong(), in.getLong()));
+                    long value = in.getLong();
+                    if (op == OP_ADD_MINUTES || op == OP_SET_MINUTES) {
+                        value *= 60;
+                    }
+                    if (record != null) {
+                        if (op == OP_ADD || op == OP_ADD_MINUTES) {
+                            store.addSeconds(record, value);
+                        } else {
+                            store.setSeconds(record, value);
+                        }
+                    }
+                }
+                case OP_PVD -> {
+                    PlayerRecord record = store.get(new UUID(in.getLong(), in.getLong()));
+                    boolean pvd = in.get() != 0;
+                    if (record != null) {
+                        store.setPvd(record, pvd);
+                    }
+                }
+                case OP_CLEAR_ALL -> store.clearAll();
+                case OP_START_WEEK -> store.startWeek(getString(in));
+                default -> {
+                    System.out.println("[PVDTime] Неизвестная запись в журнале: " + op);
+                    return;
+                }
+            }
+            in.position(start + 4 + length + 4);
+        }
+    }
+
+    private static List<Long> listSegments(Path directory) {
+        List<Long> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment_*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring("segment_".length(), name.length() - ".log".length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static Path segmentFile(Path directory, long number) {
+        return directory.resolve("segment_" + number + ".log");
+    }
+
+    // ---------- кодирование ----------
+
+    private void begin(byte op) {
+        frameStart = size;
+        ensure(5);
+        size += 4; // длина записывается в end()
+        buffer[size++] = op;
+    }
+
+    private void end() {
+        int length = size - frameStart - 4;
+        writeInt(frameStart, length);
+        crc.reset();
+        crc.update(buffer, frameStart + 4, length);
+        ensure(4);
+        writeInt(size, (int) crc.getValue());
+        size += 4;
+    }
+
+    private void putByte(int value) {
+        ensure(1);
+        buffer[size++] = (byte) value;
+    }
+
+    private void putLong(long value) {
+        ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[size++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void putUuid(UUID uuid) {
+        putLong(uuid.getMostSignificantBits());
+        putLong(uuid.getLeastSignificantBits());
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(2 + bytes.length);
+        buffer[size++] = (byte) (bytes.length >>> 8);
+        buffer[size++] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeInt(int position, int value) {
+        buffer[position] = (byte) (value >>> 24);
+        buffer[position + 1] = (byte) (value >>> 16);
+        buffer[position + 2] = (byte) (value >>> 8);
+        buffer[position + 3] = (byte) value;
+    }
+
+    private void ensure(int bytes) {
+        if (size + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.example.pvdtime;
+
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.UUID;
+
+// Неизменяемый срез хранилища: снимается на тике простым копированием полей,
+// а в JSON превращается уже в потоке записи
+public final class PlaytimeSnapshot {
+
+    public static final String WEEK_KEY = "#week";  // неделя, к которой относятся счетчики снимка
+
+    final String weekId;
+    final long version;
+    final UUID[] uuids;
+    final String[] names;
+    final long[] seconds;
+    final boolean[] pvd;
+    final boolean[] provisional;
+    final boolean[] indexed;                // false - ник уже занят другим игроком
+    final Map<String, Long>[] otherWeeks;   // сами карты после загрузки не меняются, поэтому не копируются
+    long journalSegment = -1;               // с какого сегмента журнала продолжать после загрузки этого снимка
+
+    @SuppressWarnings("unchecked")
+    PlaytimeSnapshot(String weekId, long version, int size) {
+        this.weekId = weekId;
+        this.version = version;
+        this.uuids = new UUID[size];
+        this.names = new String[size];
+        this.seconds = new long[size];
+        this.pvd = new boolean[size];
+        this.provisional = new boolean[size];
+        this.indexed = new boolean[size];
+        this.otherWeeks = new Map[size];
+    }
+
+    public String getWeekId() {
+        return weekId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return uuids.length;
+    }
+
+    public long getJournalSegment() {
+        return journalSegment;
+    }
+
+    public JsonObject toJson() {
+        JsonObject root = new JsonObject();
+        root.addProperty(WEEK_KEY, weekId);
+        if (journalSegment >= 0) {
+            // '#' не бывает в нике, поэтому служебные ключи не пересекутся с игроками
+            root.addProperty(PlaytimeJournal.SNAPSHOT_KEY, journalSegment);
+        }
+        for (int i = 0; i < uuids.length; i++) {
+            JsonObject entry = new JsonObject();
+            JsonObject weeks = new JsonObject();
+            if (otherWeeks[i] != null) {
+                for (Map.Entry<String, Long> e : otherWeeks[i].entrySet()) {
+                    weeks.addProperty(e.getKey(), e.getValue());
+                }
+            }
+            weeks.addProperty(weekId, seconds[i] / 60);
+            entry.add("weeks", weeks);
+            JsonObject weekSeconds = new JsonObject();
+            weekSeconds.addProperty(weekId, seconds[i]);
+            entry.add("weekSeconds", weekSeconds);
+            entry.addProperty("PVD", pvd[i]);
+            if (!provisional[i]) {
+                entry.addProperty("uuid", uuids[i].toString());
+            }
+
+            // Ник мог перейти к другому игроку - тогда старую запись пишем под ключом UUID
+            String jsonKey = names[i];
+            if (!indexed[i]) {
+                jsonKey = uuids[i].toString();
+                entry.addProperty("name", names[i]);
+            }
+            root.add(jsonKey, entry);
+        }
+        return root;
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.pvdtime;
+
+import java.util.function.Consumer;
+
+// Где и как хранятся данные между запусками. Выбирается параметром storageMode в config.json:
+// "json" и "journal" - JsonStorage, "mapped" - MappedStorage.
+// Все методы вызываются на потоке сервера; медленная работа уходит в поток записи.
+public interface PlaytimeStorage {
+
+    // При запуске. Возвращенное хранилище уже подписано на нужные события.
+    PlaytimeStore load(String currentWeekId);
+
+    // Периодически на тике: поставить сохранение в очередь
+    void save(PlaytimeStore store);
+
+    // При остановке сервера, после фиксации всех сессий
+    void close(PlaytimeStore store);
+
+    // Игрок зашел или вышел (время в мс)
+    default void seen(PlayerRecord record, long millis) {
+    }
+
+    // Подсказки ников игроков, которые есть на диске (см. NameIndex.Stored); по умолчанию все в памяти
+    default void suggestStored(String prefix, int limit, Consumer<String> consumer) {
+    }
+}
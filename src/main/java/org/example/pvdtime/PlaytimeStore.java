@@ -0,0 +1,344 @@
+package org.example.pvdtime;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Predicate;
+
+// Хранилище времени игроков в памяти. Ключ - UUID, плюс индекс по нику (без учета регистра).
+// JSON используется только как формат файла при сохранении/загрузке.
+public class PlaytimeStore {
+
+    private final Map<UUID, PlayerRecord> byUuid;
+    private final Map<String, PlayerRecord> byName;
+    private String weekId;
+    private long version;   // растет при каждом изменении, по нему понимаем, нужно ли сохранять
+    private int epoch;      // поколение счетчиков: сброс недели или всех счетчиков - это просто epoch++
+    private Listener[] listeners = new Listener[0];
+    private Backing backing;    // null - все игроки в памяти
+
+    // Подписчик на изменения хранилища (журнал, индексы). Вызывается на потоке сервера.
+    public interface Listener {
+        // Новая запись, привязка к UUID или смена ника (при этом могло измениться и время, см. rename)
+        default void onPlayer(PlayerRecord record) {}
+
+        default void onRemove(PlayerRecord record) {}
+
+        default void onAddSeconds(PlayerRecord record, long seconds) {}
+
+        default void onSetSeconds(PlayerRecord record, long seconds) {}
+
+        default void onPvd(PlayerRecord record, boolean pvd) {}
+
+        default void onClearAll() {}
+
+        default void onStartWeek(String weekId) {}
+    }
+
+    // Источник игроков, которых нет в памяти (режим "mapped": в памяти только активные за неделю).
+    // Возвращает новую запись без подписчиков и версии - это подгрузка, а не изменение.
+    public interface Backing {
+        PlayerRecord load(UUID uuid);
+
+        PlayerRecord loadByName(String key);
+    }
+
+    public PlaytimeStore(String weekId) {
+        this(weekId, 16);
+    }
+
+    // expectedSize - сколько игроков будет загружено, чтобы карты не перестраивались по ходу загрузки
+    public PlaytimeStore(String weekId, int expectedSize) {
+        this.weekId = weekId;
+        int capacity = (int) Math.min(1 << 30, expectedSize / 0.75 + 1);
+        this.byUuid = new HashMap<>(capacity);
+        this.byName = new HashMap<>(capacity);
+    }
+
+    public void setBacking(Backing backing) {
+        this.backing = backing;
+    }
+
+    // Запись из файла при загрузке. indexed = false - ник уже занят другим игроком (см. PlaytimeSnapshot)
+    void put(PlayerRecord record, boolean indexed) {
+        record.epoch = epoch;
+        byUuid.put(record.uuid, record);
+        if (indexed) {
+            byName.put(record.nameKey, record);
+        }
+    }
+
+    // Подгруженная запись: в индексы, но без событий
+    void attach(PlayerRecord record) {
+        record.epoch = epoch;
+        byUuid.put(record.uuid, record);
+        byName.putIfAbsent(record.nameKey, record);
+    }
+
+    // Только с backing: запись без времени и PVD за неделю выгружается из памяти. Данные остаются
+    // в backing, при следующем обращении запись подгрузится заново. Событий нет - это не изменение.
+    public boolean evict(PlayerRecord record) {
+        if (backing == null || byUuid.get(record.uuid) != record || !isIdle(normalize(record))) {
+            return false;
+        }
+        byUuid.remove(record.uuid);
+        unindexName(record);
+        return true;
+    }
+
+    // То же для всех записей в памяти, кроме keep (например, онлайн-игроков). Возвращает число выгруженных.
+    public int evictInactive(Predicate<UUID> keep) {
+        if (backing == null) {
+            return 0;
+        }
+        int evicted = 0;
+        for (Iterator<PlayerRecord> it = byUuid.values().iterator(); it.hasNext(); ) {
+            PlayerRecord record = normalize(it.next());
+            if (isIdle(record) && !keep.test(record.uuid)) {
+                it.remove();
+                unindexName(record);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private static boolean isIdle(PlayerRecord record) {
+        return record.weekSeconds == 0 && !record.pvd;
+    }
+
+    private void unindexName(PlayerRecord record) {
+        if (byName.get(record.nameKey) == record) {
+            byName.remove(record.nameKey);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    public String getWeekId() {
+        return weekId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return byUuid.size();
+    }
+
+    // Записи отдаются уже приведенными к текущему поколению (см. normalize)
+    public Collection<PlayerRecord> records() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<PlayerRecord> iterator() {
+                Iterator<PlayerRecord> records = byUuid.values().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return records.hasNext();
+                    }
+
+                    @Override
+                    public PlayerRecord next() {
+                        return normalize(records.next());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return byUuid.size();
+            }
+        };
+    }
+
+    // Счетчики записи из прошлого поколения обнуляются при первом обращении к ней после сброса.
+    // Все пути, которыми запись выходит из хранилища, проходят через normalize.
+    PlayerRecord normalize(PlayerRecord record) {
+        if (record.epoch != epoch) {
+            record.epoch = epoch;
+            record.weekSeconds = 0;
+            record.pvd = false;
+            record.otherWeeks = null;
+            record.leaderboardIndex = -1;   // таблица лидеров очищается вместе со сбросом, не трогая записи
+        }
+        return record;
+    }
+
+    public PlayerRecord get(UUID uuid) {
+        return lookup(uuid);
+    }
+
+    public PlayerRecord getByName(String name) {
+        return lookupByName(key(name));
+    }
+
+    private PlayerRecord lookup(UUID uuid) {
+        PlayerRecord record = byUuid.get(uuid);
+        if (record != null) {
+            return normalize(record);
+        }
+        if (backing != null) {
+            record = backing.load(uuid);
+            if (record != null) {
+                attach(record);
+            }
+        }
+        return record;
+    }
+
+    private PlayerRecord lookupByName(String key) {
+        PlayerRecord record = byName.get(key);
+        if (record != null) {
+            return normalize(record);
+        }
+        if (backing != null) {
+            record = backing.loadByName(key);
+            if (record != null) {
+                PlayerRecord loaded = byUuid.get(record.uuid);
+                if (loaded != null) {
+                    return loaded.nameKey.equals(key) ? normalize(loaded) : null;
+                }
+                attach(record);
+            }
+        }
+        return record;
+    }
+
+    // Основной путь для онлайн-игроков: при существующей записи и неизменном нике ничего не аллоцирует
+    public PlayerRecord getOrCreate(UUID uuid, String name) {
+        PlayerRecord record = lookup(uuid);
+        if (record != null) {
+            if (!record.name.equals(name)) {
+                rename(record, name);
+            }
+            return record;
+        }
+
+        // Запись могла появиться раньше по нику (старый lastlog.json или pvd settings time set)
+        PlayerRecord named = lookupByName(key(name));
+        if (named != null && named.provisional) {
+            byUuid.remove(named.uuid);
+            named.uuid = uuid;
+            named.provisional = false;
+            named.name = name;
+            named.nameKey = key(name);
+            byUuid.put(uuid, named);
+            version++;
+            for (Listener listener : listeners) listener.onPlayer(named);
+            return named;
+        }
+
+        record = new PlayerRecord(uuid, name, false);
+        record.epoch = epoch;
+        byUuid.put(uuid, record);
+        byName.put(record.nameKey, record);
+        version++;
+        for (Listener listener : listeners) listener.onPlayer(record);
+        return record;
+    }
+
+    // Для админских команд по нику игрока, который еще ни разу не заходил
+    public PlayerRecord getOrCreateByName(String name) {
+        PlayerRecord record = lookupByName(key(name));
+        if (record != null) {
+            return record;
+        }
+        record = new PlayerRecord(offlineUuid(name), name, true);
+        record.epoch = epoch;
+        byUuid.put(record.uuid, record);
+        byName.put(record.nameKey, record);
+        version++;
+        for (Listener listener : listeners) listener.onPlayer(record);
+        return record;
+    }
+
+    public void addSeconds(PlayerRecord record, long seconds) {
+        normalize(record).weekSeconds += seconds;
+        version++;
+        for (Listener listener : listeners) listener.onAddSeconds(record, seconds);
+    }
+
+    public void setSeconds(PlayerRecord record, long seconds) {
+        normalize(record).weekSeconds = seconds;
+        version++;
+        for (Listener listener : listeners) listener.onSetSeconds(record, seconds);
+    }
+
+    public void setPvd(PlayerRecord record, boolean pvd) {
+        normalize(record).pvd = pvd;
+        version++;
+        for (Listener listener : listeners) listener.onPvd(record, pvd);
+    }
+
+    // Обнуляет все счетчики, но оставляет самих игроков
+    public void clearAll() {
+        resetCounters();
+        for (Listener listener : listeners) listener.onClearAll();
+    }
+
+    // Переход на новую неделю: счетчики и статусы сбрасываются
+    public void startWeek(String newWeekId) {
+        resetCounters();
+        weekId = newWeekId;
+        for (Listener listener : listeners) listener.onStartWeek(newWeekId);
+    }
+
+    // O(1) при любом числе игроков: записи обнулятся сами при следующем обращении
+    private void resetCounters() {
+        epoch++;
+        version++;
+    }
+
+    private void rename(PlayerRecord record, String newName) {
+        if (byName.get(record.nameKey) == record) {
+            byName.remove(record.nameKey);
+        }
+
+        String newKey = key(newName);
+        PlayerRecord previous = lookupByName(newKey);
+        if (previous != null && previous != record && previous.provisional) {
+            // Время, выставленное админом на новый ник до захода, переносим на игрока
+            record.weekSeconds += previous.weekSeconds;
+            record.pvd |= previous.pvd;
+            byUuid.remove(previous.uuid);
+            for (Listener listener : listeners) listener.onRemove(previous);
+        }
+
+        record.name = newName;
+        record.nameKey = newKey;
+        byName.put(newKey, record);
+        version++;
+        for (Listener listener : listeners) listener.onPlayer(record);
+    }
+
+    // Копия полей для фоновой записи; сам JSON строится уже не на тике
+    public PlaytimeSnapshot snapshot() {
+        PlaytimeSnapshot snapshot = new PlaytimeSnapshot(weekId, version, byUuid.size());
+        int i = 0;
+        for (PlayerRecord record : byUuid.values()) {
+            normalize(record);
+            snapshot.uuids[i] = record.uuid;
+            snapshot.names[i] = record.name;
+            snapshot.seconds[i] = record.weekSeconds;
+            snapshot.pvd[i] = record.pvd;
+            snapshot.provisional[i] = record.provisional;
+            snapshot.indexed[i] = byName.get(record.nameKey) == record;
+            snapshot.otherWeeks[i] = record.otherWeeks;
+            i++;
+        }
+        return snapshot;
+    }
+
+    // Такой же UUID выдает сервер в offline-режиме
+    static UUID offlineUuid(String name) {
+        return UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,308 @@
+package org.example.pvdtime;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Синхронизация времени между серверами за прокси через PlaytimeAggregator.
+//
+// Хранилище сообщает об изменениях, на тике они только копятся в dirty (по игроку - не больше одной записи).
+// Раз в syncTicks пачка уходит в поток синхронизации: время этого сервера за неделю у изменившихся игроков
+// плюс список онлайн-игроков, для которых нужен ответ. Агрегатор отвечает, сколько у каждого из них
+// наиграно на остальных серверах - это время прибавляется при решении о теге PVD.
+//
+// Шлется не прибавка, а текущее время на этом сервере, поэтому повторная отправка безопасна:
+// пока агрегатор недоступен, неотправленное копится в unsent (по одной записи на игрока) и уходит
+// при следующем подключении. После нового подключения сервер один раз отправляет всю неделю целиком -
+// агрегатор мог перезапуститься и все забыть.
+public class PlaytimeSync implements PlaytimeStore.Listener {
+
+    static final int MAGIC = 0x5056444E; // "PVDN"
+    static final byte VERSION = 1;
+    static final int FLAG_RESET = 1;    // забыть все прежнее время этого сервера за неделю
+
+    private final String serverId;
+    private final InetSocketAddress address;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PVDTime-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Поток сервера
+    private final Map<UUID, PlayerRecord> dirty = new HashMap<>();
+    private boolean reset;
+    private String weekId;
+
+    // Пишется потоком синхронизации, читается на тике. Ответ применяется только для текущей недели:
+    // пачка прошлой недели могла еще идти во время смены недели (под замком otherSeconds)
+    private volatile String currentWeek;
+    private final Map<UUID, Long> otherSeconds = new ConcurrentHashMap<>();
+    private final Queue<UUID> changed = new ConcurrentLinkedQueue<>();     // чье время на других серверах изменилось
+    private volatile boolean fullSync = true;
+
+    // Поток синхронизации
+    private final Map<UUID, Long> unsent = new HashMap<>();
+    private String unsentWeek;
+    private boolean unsentReset;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private boolean available = true;   // чтобы писать в лог только о начале и конце недоступности
+
+    public PlaytimeSync(String serverId, InetSocketAddress address, String weekId) {
+        this.serverId = serverId;
+        this.address = address;
+        this.weekId = weekId;
+        this.currentWeek = weekId;
+    }
+
+    // "host:port"
+    public static InetSocketAddress parseAddress(String value) {
+        int colon = value.lastIndexOf(':');
+        return new InetSocketAddress(value.substring(0, colon), Integer.parseInt(value.substring(colon + 1)));
+    }
+
+    // Время игрока на остальных серверах сети за текущую неделю (по последнему ответу агрегатора)
+    public long otherSeconds(UUID uuid) {
+        Long seconds = otherSeconds.get(uuid);
+        return seconds != null ? seconds : 0;
+    }
+
+    // Следующий игрок, у которого изменилось время на других серверах; null - больше нет
+    public UUID pollChanged() {
+        return changed.poll();
+    }
+
+    // Игроки, про которых известно время на других серверах
+    public Set<UUID> knownPlayers() {
+        return otherSeconds.keySet();
+    }
+
+    // ---------- события хранилища (поток сервера) ----------
+
+    @Override
+    public void onPlayer(PlayerRecord record) {
+        track(record);
+    }
+
+    @Override
+    public void onRemove(PlayerRecord record) {
+        if (!record.provisional) {
+            dirty.put(record.uuid, null);
+        }
+    }
+
+    @Override
+    public void onAddSeconds(PlayerRecord record, long seconds) {
+        track(record);
+    }
+
+    @Override
+    public void onSetSeconds(PlayerRecord record, long seconds) {
+        track(record);
+    }
+
+    @Override
+    public void onClearAll() {
+        dirty.clear();
+        reset = true;
+    }
+
+    @Override
+    public void onStartWeek(String weekId) {
+        dirty.clear();
+        reset = false;
+        this.weekId = weekId;
+        synchronized (otherSeconds) {
+            currentWeek = weekId;
+            otherSeconds.clear();
+        }
+    }
+
+    // Записи, созданные админом по нику, не синхронизируются: их UUID вычислен по нику и не совпадет
+    // с настоящим. Когда игрок зайдет, запись получит настоящий UUID и уйдет уже под ним.
+    private void track(PlayerRecord record) {
+        if (!record.provisional) {
+            dirty.put(record.uuid, record);
+        }
+    }
+
+    // ---------- отправка ----------
+
+    // На тике: собрать пачку и отдать в поток синхронизации. online - игроки, для которых нужен ответ.
+    public void flush(PlaytimeStore store, Collection<UUID> online) {
+        boolean full = fullSync;
+        if (full) {
+            fullSync = false;
+            dirty.clear();
+            for (PlayerRecord record : store.records()) {
+                if (!record.provisional && record.weekSeconds > 0) {
+                    dirty.put(record.uuid, record);
+                }
+            }
+        }
+        if (dirty.isEmpty() && online.isEmpty() && !reset) {
+            return;
+        }
+
+        Batch batch = new Batch(weekId, reset || full, dirty.size(), online.size());
+        int i = 0;
+        for (Map.Entry<UUID, PlayerRecord> e : dirty.entrySet()) {
+            batch.uuids[i] = e.getKey();
+            batch.seconds[i] = e.getValue() != null ? e.getValue().weekSeconds : 0;
+            i++;
+        }
+        online.toArray(batch.queries);
+        dirty.clear();
+        reset = false;
+        executor.execute(() -> send(batch));
+    }
+
+    // При остановке сервера: дождаться отправки последней пачки
+    public void close() {
+        executor.execute(this::disconnect);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Batch {
+        final String weekId;
+        final boolean reset;
+        final UUID[] uuids;
+        final long[] seconds;
+        final UUID[] queries;
+
+        Batch(String weekId, boolean reset, int size, int queries) {
+            this.weekId = weekId;
+            this.reset = reset;
+            this.uuids = new UUID[size];
+            this.seconds = new long[size];
+            this.queries = new UUID[queries];
+        }
+    }
+
+    // ---------- поток синхронизации ----------
+
+    private void send(Batch batch) {
+        // Неотправленное с прошлых раз - под пачку той же недели, новые значения поверх старых
+        if (!batch.weekId.equals(unsentWeek)) {
+            unsent.clear();
+            unsentReset = false;
+            unsentWeek = batch.weekId;
+        }
+        if (batch.reset) {
+            unsent.clear();
+            unsentReset = true;
+        }
+        for (int i = 0; i < batch.uuids.length; i++) {
+            unsent.put(batch.uuids[i], batch.seconds[i]);
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (socket == null) {
+                connect();
+            }
+            List<UUID> asked = new ArrayList<>(unsent.size() + batch.queries.length);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(serverId);
+            out.writeUTF(unsentWeek);
+            out.writeByte(unsentReset ? FLAG_RESET : 0);
+            out.writeInt(unsent.size());
+            for (Map.Entry<UUID, Long> e : unsent.entrySet()) {
+                writeUuid(e.getKey());
+                out.writeLong(e.getValue());
+                asked.add(e.getKey());
+            }
+            out.writeInt(batch.queries.length);
+            for (UUID uuid : batch.queries) {
+                writeUuid(uuid);
+                asked.add(uuid);
+            }
+            out.flush();
+
+            // Ответ - время на остальных серверах в том же порядке, что и игроки в запросе
+            int count = in.readInt();
+            if (count != asked.size()) {
+                throw new IOException("Агрегатор ответил на " + count + " игроков вместо " + asked.size());
+            }
+            long[] replies = new long[count];
+            for (int i = 0; i < count; i++) {
+                replies[i] = in.readLong();
+            }
+            synchronized (otherSeconds) {
+                // Неделя сменилась, пока шла пачка: время прошлой недели к новой не относится
+                if (unsentWeek.equals(currentWeek)) {
+                    for (int i = 0; i < count; i++) {
+                        UUID uuid = asked.get(i);
+                        long seconds = replies[i];
+                        Long previous = seconds > 0 ? otherSeconds.put(uuid, seconds) : otherSeconds.remove(uuid);
+                        if (previous == null ? seconds > 0 : previous != seconds) {
+                            changed.add(uuid);
+                        }
+                    }
+                }
+            }
+            unsent.clear();
+            unsentReset = false;
+            PvdMetrics.SYNC.observeSince(start);
+            if (!available) {
+                available = true;
+                System.out.println("[PVDTime] Агрегатор снова доступен");
+            }
+        } catch (IOException e) {
+            PvdMetrics.SYNC_ERRORS.add(1);
+            disconnect();
+            if (available) {
+                available = false;
+                System.out.println("[PVDTime] Агрегатор " + address + " недоступен, время копится до подключения: " + e);
+            }
+        }
+    }
+
+    private void connect() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.connect(address, 2000);
+            s.setSoTimeout(5000);
+            s.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        socket = s;
+        // Агрегатор мог потерять состояние - со следующей пачкой отправим всю неделю
+        fullSync = true;
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            socket = null;
+            in = null;
+            out = null;
+        }
+    }
+
+    private void writeUuid(UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+}
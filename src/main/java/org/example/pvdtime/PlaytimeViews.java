@@ -0,0 +1,222 @@
+package org.example.pvdtime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Текст списков для команд pvd list. Без классов Minecraft: команда только оборачивает строку в Text.
+//
+// Данные снимаются на тике в неизменяемые строки (snapshot-методы), а текст из них собирается
+// в потоке команд (AsyncCommands). Варианты от Leaderboard делают и то, и другое сразу.
+public final class PlaytimeViews {
+
+    public static final int PAGE_SIZE = 20;
+
+    private PlaytimeViews() {
+    }
+
+    // Строка списка: копия ника и времени на момент снимка
+    public static final class Row {
+        public final String name;
+        public final long seconds;
+        public final boolean pvd;
+
+        Row(String name, long seconds, boolean pvd) {
+            this.name = name;
+            this.seconds = seconds;
+            this.pvd = pvd;
+        }
+
+        Row(PlayerRecord record) {
+            this(record.getName(), record.getWeekSeconds(), record.isPvd());
+        }
+    }
+
+    // Страница таблицы лидеров: строки страницы и ее место в таблице
+    public static final class Page {
+        final List<Row> rows;
+        final int page;
+        final int pages;
+
+        Page(List<Row> rows, int page, int pages) {
+            this.rows = rows;
+            this.page = page;
+            this.pages = pages;
+        }
+    }
+
+    public static int pageCount(Leaderboard leaderboard) {
+        return pageCount(leaderboard.size());
+    }
+
+    private static int pageCount(int size) {
+        return Math.max(1, (size + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    // ---------- снимки (на тике) ----------
+
+    // Номер страницы с 1; слишком большой номер показывает последнюю страницу
+    public static Page pageSnapshot(Leaderboard leaderboard, int page) {
+        int pages = pageCount(leaderboard);
+        int shownPage = Math.min(page, pages);
+        int from = (shownPage - 1) * PAGE_SIZE;
+        return new Page(slice(leaderboard, from, Math.min(from + PAGE_SIZE, leaderboard.size())), shownPage, pages);
+    }
+
+    public static List<Row> topSnapshot(Leaderboard leaderboard, int count) {
+        return slice(leaderboard, 0, Math.min(count, leaderboard.size()));
+    }
+
+    // Таблица уже отсортирована, остается только отфильтровать
+    public static List<Row> activeSnapshot(Leaderboard leaderboard) {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < leaderboard.size(); i++) {
+            PlayerRecord record = leaderboard.get(i);
+            if (record.isPvd()) {
+                rows.add(new Row(record));
+            }
+        }
+        return rows;
+    }
+
+    private static List<Row> slice(Leaderboard leaderboard, int from, int to) {
+        List<Row> rows = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            rows.add(new Row(leaderboard.get(i)));
+        }
+        return rows;
+    }
+
+    // ---------- текст (в потоке команд) ----------
+
+    public static String leaderboardPage(Leaderboard leaderboard, int page) {
+        return leaderboardPage(pageSnapshot(leaderboard, page));
+    }
+
+    public static String leaderboardPage(Page page) {
+        int first = (page.page - 1) * PAGE_SIZE;
+        StringBuilder sb = new StringBuilder("§6Все игроки и их время:");
+        for (int i = 0; i < page.rows.size(); i++) {
+            Row row = page.rows.get(i);
+            sb.append("\n§a").append(first + i + 1).append(". ").append(row.name).append(": §e").append(formatMinutes(row.seconds / 60));
+        }
+
+        if (page.rows.isEmpty()) {
+            sb.append("\n§cНет данных о времени игроков.");
+        } else if (page.pages > 1) {
+            sb.append("\n§7Страница ").append(page.page).append("/").append(page.pages).append(" - pvd list page <номер>");
+        }
+        return sb.toString();
+    }
+
+    public static String top(Leaderboard leaderboard, int count) {
+        return top(topSnapshot(leaderboard, count));
+    }
+
+    public static String top(List<Row> rows) {
+        StringBuilder sb = new StringBuilder("§6Топ-" + rows.size() + " игроков недели:");
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            sb.append("\n§a").append(i + 1).append(". ").append(row.name)
+                    .append(": §e").append(formatMinutes(row.seconds / 60));
+        }
+        if (rows.isEmpty()) {
+            sb.append("\n§cНет данных о времени игроков.");
+        }
+        return sb.toString();
+    }
+
+    public static String active(Leaderboard leaderboard) {
+        return active(activeSnapshot(leaderboard));
+    }
+
+    public static String active(List<Row> rows) {
+        StringBuilder sb = new StringBuilder("§6Активные PVD игроки и их время:");
+        for (Row row : rows) {
+            sb.append("\n§a- ").append(row.name).append(": §e").append(formatMinutes(row.seconds / 60));
+        }
+        if (rows.isEmpty()) {
+            sb.append("\n§cНет активных PVD игроков.");
+        }
+        return sb.toString();
+    }
+
+    public static String archivedWeek(WeekArchive.ArchivedWeek week, String title) {
+        // Записи в архиве уже отсортированы по убыванию времени
+        StringBuilder sb = new StringBuilder(title);
+        int shown = 0;
+        for (int i = 0; i < week.size(); i++) {
+            long minutes = week.seconds(i) / 60;
+            if (minutes > 0) {
+                sb.append("\n§a- ").append(week.name(i)).append(": §e").append(formatMinutes(minutes));
+                shown++;
+            }
+        }
+        if (shown == 0) {
+            sb.append("\n§cНет данных о времени игроков.");
+        }
+        return sb.toString();
+    }
+
+    // pvd history: текущая неделя снята на тике, прошлые - из архива (каждая неделя - бинарный
+    // поиск по индексу ников в своем файле)
+    public static String history(WeekArchive archive, String playerName, String currentWeekId, long currentMinutes, int weeks) {
+        StringBuilder sb = new StringBuilder("§6История игрока " + playerName + ":");
+        sb.append("\n§a- ").append(currentWeekId).append(" (текущая): §e").append(formatMinutes(currentMinutes));
+
+        for (String weekId : archive.lastWeeks(weeks - 1)) {
+            try {
+                WeekArchive.ArchivedWeek week = archive.get(weekId);
+                int index = week != null ? week.find(playerName) : -1;
+                long minutes = index >= 0 ? week.seconds(index) / 60 : 0;
+                sb.append("\n§a- ").append(weekId).append(": §e").append(formatMinutes(minutes));
+                if (index >= 0 && week.pvd(index)) {
+                    sb.append(" §b(PVD)");
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return sb.toString();
+    }
+
+    // Список за последние days дней по страницам, как pvd list; rows еще не отсортированы
+    public static String range(List<Row> rows, int days, int page) {
+        List<Row> ranked = new ArrayList<>(rows);
+        ranked.sort((a, b) -> Long.compare(b.seconds, a.seconds));
+        int pages = pageCount(ranked.size());
+        int shownPage = Math.min(page, pages);
+        int from = (shownPage - 1) * PAGE_SIZE;
+        int to = Math.min(from + PAGE_SIZE, ranked.size());
+
+        StringBuilder sb = new StringBuilder("§6Время игроков за " + days + " дн.:");
+        for (int i = from; i < to; i++) {
+            Row row = ranked.get(i);
+            sb.append("\n§a").append(i + 1).append(". ").append(row.name).append(": §e").append(formatMinutes(row.seconds / 60));
+        }
+
+        if (ranked.isEmpty()) {
+            sb.append("\n§cНет данных о времени игроков.");
+        } else if (pages > 1) {
+            sb.append("\n§7Страница ").append(shownPage).append("/").append(pages)
+                    .append(" - pvd list range ").append(days).append("d <номер>");
+        }
+        return sb.toString();
+    }
+
+    public static String allTime(List<Row> rows) {
+        StringBuilder sb = new StringBuilder("§6Топ-" + rows.size() + " игроков за все время:");
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            sb.append("\n§a").append(i + 1).append(". ").append(row.name).append(": §e").append(formatMinutes(row.seconds / 60));
+        }
+        if (rows.isEmpty()) {
+            sb.append("\n§cНет данных о времени игроков.");
+        }
+        return sb.toString();
+    }
+
+    public static String formatMinutes(long minutes) {
+        return (minutes / 60) + "ч " + (minutes % 60) + "м";
+    }
+}
@@ -0,0 +1,138 @@
+package org.example.pvdtime;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Фоновая запись снимка (lastlog.json или lastlog.bin, см. setBinaryFile). Тик только кладет снимок в очередь, сериализация и диск - в отдельном потоке.
+// Если запись не успела, более старый снимок заменяется новым: на диск всегда идет последнее состояние.
+public class PlaytimeWriter {
+
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Path file;
+    private final AtomicReference<PlaytimeSnapshot> pending = new AtomicReference<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PVDTime-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Path binaryFile;   // null - снимок пишется в JSON
+    private volatile long writtenVersion = -1;
+    private volatile Consumer<PlaytimeSnapshot> afterWrite = snapshot -> {};
+
+    public PlaytimeWriter(Path file) {
+        this.file = file;
+    }
+
+    public long getWrittenVersion() {
+        return writtenVersion;
+    }
+
+    // Вызывается в потоке записи после того, как снимок надежно лег на диск
+    public void setAfterWrite(Consumer<PlaytimeSnapshot> afterWrite) {
+        this.afterWrite = afterWrite;
+    }
+
+    // Писать снимки в бинарном формате SnapshotFile в этот файл вместо JSON
+    public void setBinaryFile(Path binaryFile) {
+        this.binaryFile = binaryFile;
+    }
+
+    // Выполняет задачу в том же потоке, что и запись снимков, с сохранением порядка
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public void submit(PlaytimeSnapshot snapshot) {
+        // Задачу ставим только если в очереди еще не было снимка, иначе просто подменяем его
+        if (pending.getAndSet(snapshot) == null) {
+            executor.execute(this::writePending);
+        }
+    }
+
+    // Дожидается записи всего, что уже поставлено в очередь (вызывается при остановке сервера)
+    public void flush() {
+        try {
+            executor.submit(this::writePending).get(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void close() {
+        flush();
+        executor.shutdown();
+    }
+
+    private void writePending() {
+        PlaytimeSnapshot snapshot = pending.getAndSet(null);
+        if (snapshot == null || snapshot.getVersion() == writtenVersion) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Path binary = binaryFile;
+            long bytes = binary != null
+                    ? writeBinaryAtomically(binary, out -> SnapshotFile.writeBinary(snapshot, out))
+                    : writeAtomically(file, writer -> gson.toJson(snapshot.toJson(), writer));
+            PvdMetrics.SAVE_WRITE.observeSince(start);
+            PvdMetrics.BYTES_LASTLOG.add(bytes);
+            writtenVersion = snapshot.getVersion();
+            afterWrite.accept(snapshot);
+        } catch (IOException e) {
+            PvdMetrics.WRITE_ERRORS.add(1);
+            e.printStackTrace();
+        }
+    }
+
+    public interface Content {
+        void write(Writer writer) throws IOException;
+    }
+
+    public interface BinaryContent {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // Возвращает размер записанного файла в байтах
+    public static long writeAtomically(Path target, Content content) throws IOException {
+        return writeBinaryAtomically(target, out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            content.write(writer);
+            writer.flush();
+        });
+    }
+
+    // Пишем во временный файл, fsync, затем атомарно подменяем: после падения на диске остается
+    // либо старая, либо новая версия файла, но не обрезанная
+    public static long writeBinaryAtomically(Path target, BinaryContent content) throws IOException {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        long bytes;
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+            BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+            content.write(buffered);
+            buffered.flush();
+            out.getChannel().force(true);
+            bytes = out.getChannel().position();
+        }
+
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,105 @@
+package org.example.pvdtime;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+// Настройки мода из playtime_logs/config.json. Отсутствующие в файле ключи остаются по умолчанию.
+public class PvdConfig {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    int requiredMinutes = 180; // Время, необходимое для получения статуса PVD
+    int afkTimeThreshold = 5; // Время AFK по умолчанию (минуты)
+    boolean afkCheckEnabled = true; // Переменная для хранения статуса проверки AFK
+    String storageMode = "json";    // "json" - целый lastlog.json раз в минуту, "journal" - журнал изменений,
+                                    // "mapped" - таблица игроков в players.dat, изменения пишутся на месте
+    int journalCompactMinutes = 60; // Как часто журнал сворачивается в новый снимок
+    String snapshotFormat = "binary";   // "binary" - lastlog.bin, "json" - lastlog.json (читается любой, более свежий)
+    int tickBudgetMicros = 2000;    // Сколько времени за тик можно тратить на обход игроков
+    int metricsIntervalSeconds = 30; // Как часто обновлять playtime_logs/metrics.prom (0 - не писать)
+    boolean syncEnabled = false;    // Суммировать время с других серверов сети через агрегатор
+    String syncServerId = "server";     // Имя этого сервера для агрегатора (у каждого сервера свое)
+    String syncAddress = "127.0.0.1:" + PlaytimeAggregator.DEFAULT_PORT;
+    int syncSeconds = 10;           // Как часто отправлять пачку изменений
+    int hudSeconds = 2;             // Как часто сверять HUD игроков с модом на клиенте (0 - не отправлять)
+
+    public void save(File configFile) {
+        JsonObject config = new JsonObject();
+        config.addProperty("requiredMinutes", requiredMinutes);
+        config.addProperty("afkCheckEnabled", afkCheckEnabled);
+        config.addProperty("afkTimeThreshold", afkTimeThreshold);
+        config.addProperty("storageMode", storageMode);
+        config.addProperty("journalCompactMinutes", journalCompactMinutes);
+        config.addProperty("snapshotFormat", snapshotFormat);
+        config.addProperty("tickBudgetMicros", tickBudgetMicros);
+        config.addProperty("metricsIntervalSeconds", metricsIntervalSeconds);
+        config.addProperty("syncEnabled", syncEnabled);
+        config.addProperty("syncServerId", syncServerId);
+        config.addProperty("syncAddress", syncAddress);
+        config.addProperty("syncSeconds", syncSeconds);
+        config.addProperty("hudSeconds", hudSeconds);
+
+        try (FileWriter writer = new FileWriter(configFile)) {
+            GSON.toJson(config, writer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void load(File configFile) {
+        if (configFile.exists()) {
+            try (FileReader reader = new FileReader(configFile)) {
+                JsonObject config = JsonParser.parseReader(reader).getAsJsonObject();
+
+                if (config.has("requiredMinutes")) {
+                    requiredMinutes = config.get("requiredMinutes").getAsInt();
+                }
+                if (config.has("afkCheckEnabled")) {
+                    afkCheckEnabled = config.get("afkCheckEnabled").getAsBoolean();
+                }
+                if (config.has("afkTimeThreshold")) {
+                    afkTimeThreshold = config.get("afkTimeThreshold").getAsInt();
+                }
+                if (config.has("storageMode")) {
+                    storageMode = config.get("storageMode").getAsString();
+                }
+                if (config.has("journalCompactMinutes")) {
+                    journalCompactMinutes = config.get("journalCompactMinutes").getAsInt();
+                }
+                if (config.has("snapshotFormat")) {
+                    snapshotFormat = config.get("snapshotFormat").getAsString();
+                }
+                if (config.has("tickBudgetMicros")) {
+                    tickBudgetMicros = config.get("tickBudgetMicros").getAsInt();
+                }
+                if (config.has("metricsIntervalSeconds")) {
+                    metricsIntervalSeconds = config.get("metricsIntervalSeconds").getAsInt();
+                }
+                if (config.has("syncEnabled")) {
+                    syncEnabled = config.get("syncEnabled").getAsBoolean();
+                }
+                if (config.has("syncServerId")) {
+                    syncServerId = config.get("syncServerId").getAsString();
+                }
+                if (config.has("syncAddress")) {
+                    syncAddress = config.get("syncAddress").getAsString();
+                }
+                if (config.has("syncSeconds")) {
+                    syncSeconds = config.get("syncSeconds").getAsInt();
+                }
+                if (config.has("hudSeconds")) {
+                    hudSeconds = config.get("hudSeconds").getAsInt();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
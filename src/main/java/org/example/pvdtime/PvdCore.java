@@ -0,0 +1,267 @@
+package org.example.pvdtime;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.temporal.WeekFields;
+import java.util.List;
+import java.util.UUID;
+
+// Учет времени без классов Minecraft: хранилище, таблица лидеров, сессии, AFK, статус PVD, смена недели
+// и суток, сохранение. PvdTime подключает к этому события сервера, теги и команды, а PlaytimeSimulator
+// гоняет то же самое на синтетических игроках.
+//
+// Время суток и недели берется только из clock (на сервере - системные часы, в симуляторе - виртуальные),
+// тики считает сам вызывающий через serverTick().
+public class PvdCore {
+
+    private final int sessionCommitTicks = 60 * SessionTracker.TICKS_PER_SECOND;
+    private final int logSaveTicks = 60 * SessionTracker.TICKS_PER_SECOND;
+
+    final PvdConfig config;
+    final Clock clock;
+    final Path directory;
+    final PlaytimeWriter playtimeWriter;
+    final WeekArchive archive;
+    final WeekRollover rollover;
+    final Leaderboard leaderboard = new Leaderboard();
+    final NameIndex names = new NameIndex();
+    PlaytimeStore playtimeData;
+    PlaytimeStorage storage;
+    PlaytimeHistory history;
+    SessionTracker sessions;
+    AfkTracker afk;
+    PvdTracker pvdTracker;
+    PlaytimeSync sync;                      // null - сервер считает время сам по себе
+    TickScheduler scheduler;
+    long tick;                              // счетчик тиков сервера - часы для учета сессий
+    private long nextWeekStartTime;         // когда на тике пора переходить на новую неделю
+    private long nextDayStartTime;          // когда на тике пора сдвигать дни истории
+    private Runnable onNewWeek = () -> {};
+
+    public PvdCore(Path directory, PvdConfig config, Clock clock) {
+        this.directory = directory;
+        this.config = config;
+        this.clock = clock;
+        this.playtimeWriter = new PlaytimeWriter(directory.resolve("lastlog.json"));
+        this.archive = new WeekArchive(directory, 16);
+        this.rollover = new WeekRollover(directory.resolve("rollover.json"), archive, playtimeWriter);
+    }
+
+    // Вызывается после смены недели на тике, когда статус PVD уже сброшен у всех
+    public void setOnNewWeek(Runnable onNewWeek) {
+        this.onNewWeek = onNewWeek;
+    }
+
+    public void start(PvdTracker.Tags tags) {
+        rollover.recover();
+        loadPlaytimeData();
+        catchUpWeek();
+        leaderboard.rebuild(playtimeData);
+        playtimeData.addListener(leaderboard);
+        names.rebuild(playtimeData);
+        names.setStored(storage::suggestStored);
+        playtimeData.addListener(names);
+        loadHistory();
+        playtimeData.addListener(history);
+        pvdTracker = new PvdTracker(playtimeData, leaderboard, tags, config.requiredMinutes);
+        playtimeData.addListener(pvdTracker);
+        sessions = new SessionTracker(playtimeData, sessionCommitTicks);
+        afk = new AfkTracker((uuid, isAfk, t) -> sessions.setAfk(uuid, isAfk, t), config.afkCheckEnabled, config.afkTimeThreshold);
+        // Не удалось сменить неделю при загрузке - повторим на первом же тике
+        nextWeekStartTime = playtimeData.getWeekId().equals(getCurrentWeekId())
+                ? WeekRollover.nextWeekStartMillis(clock.millis(), clock.getZone()) : clock.millis();
+        nextDayStartTime = PlaytimeHistory.nextDayStartMillis(clock.millis(), clock.getZone());
+
+        // AFK и сессии сами разнесены по корзинам, остальное - по смещениям внутри минуты
+        scheduler = new TickScheduler(config.tickBudgetMicros);
+        scheduler.every(1, 0, timed(PvdMetrics.PHASE_AFK, afk::tick));
+        scheduler.every(1, 0, timed(PvdMetrics.PHASE_SESSIONS, sessions::tick));
+        scheduler.every(SessionTracker.TICKS_PER_SECOND, 0, timed(PvdMetrics.PHASE_WEEK, t -> checkWeekBoundary()));
+        scheduler.every(SessionTracker.TICKS_PER_SECOND, SessionTracker.TICKS_PER_SECOND / 2, t -> updateGauges());
+        scheduler.every(logSaveTicks, logSaveTicks / 2, timed(PvdMetrics.PHASE_SAVE, t -> savePlaytimeData()));
+        scheduler.every(1, 0, timed(PvdMetrics.PHASE_PVD, t -> reconcilePvd()));
+        if (config.syncEnabled) {
+            sync = new PlaytimeSync(config.syncServerId, PlaytimeSync.parseAddress(config.syncAddress), playtimeData.getWeekId());
+            playtimeData.addListener(sync);
+            pvdTracker.setOtherSeconds(sync::otherSeconds);
+            int syncTicks = Math.max(1, config.syncSeconds) * SessionTracker.TICKS_PER_SECOND;   // 0 в конфиге - не ошибка запуска
+            scheduler.every(syncTicks, syncTicks / 4, t -> sync.flush(playtimeData, sessions.onlineUuids()));
+        }
+        pvdTracker.checkAll();
+    }
+
+    public void serverTick() {
+        long start = System.nanoTime();
+        tick++;
+        scheduler.tick(tick);
+        PvdMetrics.TICK.observeSince(start);
+    }
+
+    public PlayerRecord join(UUID uuid, String name, float yaw, float pitch) {
+        sessions.join(uuid, name, tick);
+        seen(uuid);
+        afk.join(uuid, yaw, pitch, tick);
+        return playtimeData.get(uuid);
+    }
+
+    public void leave(UUID uuid) {
+        sessions.leave(uuid, tick);
+        seen(uuid);
+        afk.leave(uuid);
+        // В режиме "mapped" игрок без времени за неделю дальше живет только в players.dat
+        PlayerRecord record = playtimeData.get(uuid);
+        if (record != null) {
+            playtimeData.evict(record);
+        }
+    }
+
+    // При остановке дописываем последнее состояние синхронно
+    public void stop() {
+        sessions.commitAll(tick);
+        storage.close(playtimeData);
+        history.save();
+        history.close();
+        playtimeWriter.flush();
+        if (sync != null) {
+            sync.flush(playtimeData, List.of());
+            sync.close();
+        }
+    }
+
+    static TickScheduler.Job timed(PvdMetrics.Histogram histogram, TickScheduler.Job job) {
+        return t -> {
+            long start = System.nanoTime();
+            job.run(t);
+            histogram.observeSince(start);
+        };
+    }
+
+    // Размеры для метрик: только чтение полей, раз в секунду
+    private void updateGauges() {
+        PvdMetrics.PLAYERS_STORED.set(playtimeData.size());
+        PvdMetrics.PLAYERS_ONLINE.set(sessions.size());
+        PvdMetrics.LEADERBOARD_SIZE.set(leaderboard.size());
+        PvdMetrics.ARCHIVE_WEEKS.set(archive.weekCount());
+        PvdMetrics.DEFERRED_TICKS.set(scheduler.getDeferredTicks());
+    }
+
+    // Граница недели (и суток) известна заранее, поэтому проверка - одно сравнение раз в секунду
+    private void checkWeekBoundary() {
+        long currentTime = clock.millis();
+        if (currentTime >= nextDayStartTime) {
+            history.setToday(PlaytimeHistory.dayOf(currentTime, clock.getZone()));
+            nextDayStartTime = PlaytimeHistory.nextDayStartMillis(currentTime, clock.getZone());
+        }
+        if (currentTime >= nextWeekStartTime && startNewWeek()) {
+            nextWeekStartTime = WeekRollover.nextWeekStartMillis(currentTime, clock.getZone());
+        }
+    }
+
+    // false - маркер не записан, неделя не сменилась; проверка повторится через секунду
+    private boolean startNewWeek() {
+        String currentWeekId = getCurrentWeekId();
+        if (currentWeekId.equals(playtimeData.getWeekId())) {
+            return true;
+        }
+        sessions.commitAll(tick);                    // Время до границы недели уходит в старую неделю
+        pvdTracker.reconcile();                      // и статус по нему - тоже, до архива
+        if (!rollover.rollover(playtimeData, currentWeekId)) {
+            return false;
+        }
+        savePlaytimeData();
+        playtimeData.evictInactive(sessions::isOnline);  // счетчики сброшены - в памяти остаются только онлайн
+        onNewWeek.run();                             // Снимаем теги PVD прошлой недели
+        return true;
+    }
+
+    // Сервер был выключен на границе недели (или упал до записи архива): в lastlog.json прошлая неделя
+    private void catchUpWeek() {
+        String currentWeekId = getCurrentWeekId();
+        String loadedWeekId = playtimeData.getWeekId();
+        if (currentWeekId.equals(loadedWeekId)) {
+            return;
+        }
+        if (archive.has(loadedWeekId)) {
+            // Архив уже записан при смене недели - он точнее, чем lastlog.json до границы
+            playtimeData.startWeek(currentWeekId);
+        } else {
+            if (!rollover.rollover(playtimeData, currentWeekId)) {
+                return;
+            }
+        }
+        savePlaytimeData();
+        playtimeData.evictInactive(uuid -> false);     // при запуске онлайн еще никого нет
+    }
+
+    // Переходы статуса PVD: свои события хранилища плюс изменения времени на других серверах
+    private void reconcilePvd() {
+        if (sync != null) {
+            for (UUID uuid = sync.pollChanged(); uuid != null; uuid = sync.pollChanged()) {
+                PlayerRecord record = playtimeData.get(uuid);
+                if (record != null) {
+                    pvdTracker.markDirty(record);
+                }
+            }
+        }
+        pvdTracker.reconcile();
+    }
+
+    String getCurrentWeekId() {
+        return weekId(LocalDate.now(clock));
+    }
+
+    String getPreviousWeekId() {
+        return weekId(LocalDate.now(clock).minusWeeks(1));   // Вычитаем неделю
+    }
+
+    private static String weekId(LocalDate date) {
+        int year = date.get(WeekFields.ISO.weekBasedYear());
+        int week = date.get(WeekFields.ISO.weekOfWeekBasedYear());
+        return String.format("%d-W%02d", year, week);
+    }
+
+    // Ставит сохранение в очередь на фоновую запись (как именно - решает выбранное хранилище)
+    void savePlaytimeData() {
+        storage.save(playtimeData);
+        if (history != null) {
+            history.save();
+        }
+    }
+
+    private void seen(UUID uuid) {
+        PlayerRecord record = playtimeData.get(uuid);
+        if (record != null) {
+            storage.seen(record, clock.millis());
+        }
+    }
+
+    private void loadPlaytimeData() {
+        long start = System.nanoTime();
+        Path journalDirectory = directory.resolve("journal");
+        if (config.storageMode.equalsIgnoreCase("mapped")) {
+            // lastlog.json нужен только для переноса при первом запуске
+            storage = new MappedStorage(directory, playtimeWriter,
+                    new JsonStorage(directory.resolve("lastlog.json"), directory.resolve("lastlog.bin"), false,
+                            journalDirectory, playtimeWriter, false, config.journalCompactMinutes, clock));
+        } else {
+            storage = new JsonStorage(directory.resolve("lastlog.json"), directory.resolve("lastlog.bin"),
+                    config.snapshotFormat.equalsIgnoreCase("binary"), journalDirectory, playtimeWriter,
+                    config.storageMode.equalsIgnoreCase("journal"), config.journalCompactMinutes, clock);
+        }
+        playtimeData = storage.load(getCurrentWeekId());
+        PvdMetrics.LOAD.observeSince(start);
+    }
+
+    private void loadHistory() {
+        history = new PlaytimeHistory(directory.resolve("history.bin"), playtimeWriter,
+                PlaytimeHistory.dayOf(clock.millis(), clock.getZone()));
+        if (history.load()) {
+            return;
+        }
+        // Первый запуск с историей: сумма за все время - по архиву недель, один раз
+        int weeks = history.seed(archive, playtimeData);
+        history.save();
+        System.out.println("[PVDTime] Время за все время собрано по архиву: " + weeks + " недель, " + history.size() + " игроков");
+    }
+}
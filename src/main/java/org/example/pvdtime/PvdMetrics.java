@@ -0,0 +1,294 @@
+package org.example.pvdtime;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Метрики мода: счетчики, показатели и гистограммы времени.
+// Запись - только атомарные операции над заранее созданными полями, без аллокаций, поэтому ее можно
+// вызывать на тике. Текст (pvd stats и файл для Prometheus) строится только при чтении.
+public final class PvdMetrics {
+
+    private static final List<Metric> ALL = new ArrayList<>();
+
+    // Тик и его фазы (см. расписание в PvdTime)
+    public static final Histogram TICK = histogram("pvdtime_tick_seconds", "", "Время работы мода за тик");
+    public static final Histogram PHASE_SESSIONS = histogram("pvdtime_phase_seconds", "phase=\"sessions\"", "Фаза тика: учет времени сессий");
+    public static final Histogram PHASE_AFK = histogram("pvdtime_phase_seconds", "phase=\"afk\"", "Фаза тика: проверка AFK");
+    public static final Histogram PHASE_SAVE = histogram("pvdtime_phase_seconds", "phase=\"save\"", "Фаза тика: сохранение (снимок или журнал)");
+    public static final Histogram PHASE_WEEK = histogram("pvdtime_phase_seconds", "phase=\"week\"", "Фаза тика: граница недели");
+    public static final Histogram PHASE_PVD = histogram("pvdtime_phase_seconds", "phase=\"pvd\"", "Фаза тика: переходы статуса PVD");
+
+    public static final Histogram COMMAND = histogram("pvdtime_command_seconds", "", "Выполнение команд pvd");
+    public static final Histogram COMMAND_ASYNC = histogram("pvdtime_command_async_seconds", "", "Сборка ответа команды в потоке команд");
+    public static final Counter COMMANDS_COALESCED = counter("pvdtime_commands_coalesced_total", "", "Запросы, получившие уже собираемый ответ");
+    public static final Counter COMMANDS_CACHED = counter("pvdtime_commands_cached_total", "", "Запросы, получившие ответ из кэша текста");
+
+    // Поток записи и запуск
+    public static final Histogram SAVE_WRITE = histogram("pvdtime_save_write_seconds", "", "Запись lastlog.json");
+    public static final Histogram ARCHIVE_WRITE = histogram("pvdtime_archive_write_seconds", "", "Запись архива недели");
+    public static final Histogram LOAD = histogram("pvdtime_load_seconds", "", "Загрузка данных при запуске");
+    public static final Counter BYTES_LASTLOG = counter("pvdtime_bytes_written_total", "file=\"lastlog\"", "Записано байт");
+    public static final Counter BYTES_JOURNAL = counter("pvdtime_bytes_written_total", "file=\"journal\"", "Записано байт");
+    public static final Counter BYTES_ARCHIVE = counter("pvdtime_bytes_written_total", "file=\"archive\"", "Записано байт");
+    public static final Counter BYTES_HISTORY = counter("pvdtime_bytes_written_total", "file=\"history\"", "Записано байт");
+    public static final Counter BYTES_EXPORT = counter("pvdtime_bytes_written_total", "file=\"export\"", "Записано байт");
+    public static final Counter WRITE_ERRORS = counter("pvdtime_write_errors_total", "", "Ошибки записи на диск");
+
+    // Синхронизация с агрегатором (syncEnabled)
+    public static final Histogram SYNC = histogram("pvdtime_sync_seconds", "", "Обмен пачкой с агрегатором");
+    public static final Counter SYNC_ERRORS = counter("pvdtime_sync_errors_total", "", "Неудачные обмены с агрегатором");
+
+    // HUD клиентов с модом
+    public static final Counter HUD_PACKETS = counter("pvdtime_hud_packets_total", "", "Отправлено пакетов HUD");
+
+    // Размеры, обновляются раз в секунду на тике
+    public static final Gauge PLAYERS_STORED = gauge("pvdtime_players_stored", "Игроков в хранилище");
+    public static final Gauge PLAYERS_ONLINE = gauge("pvdtime_players_online", "Игроков онлайн");
+    public static final Gauge LEADERBOARD_SIZE = gauge("pvdtime_leaderboard_size", "Игроков в таблице недели");
+    public static final Gauge ARCHIVE_WEEKS = gauge("pvdtime_archive_weeks", "Недель в архиве");
+    public static final Gauge JOURNAL_BYTES = gauge("pvdtime_journal_segment_bytes", "Размер текущего сегмента журнала");
+    public static final Gauge DEFERRED_TICKS = gauge("pvdtime_scheduler_deferred_ticks", "Тиков, где обход игроков не уложился в бюджет");
+
+    private PvdMetrics() {
+    }
+
+    public static abstract class Metric {
+        final String name;
+        final String labels;
+        final String help;
+
+        Metric(String name, String labels, String help) {
+            this.name = name;
+            this.labels = labels;
+            this.help = help;
+        }
+
+        abstract String type();
+
+        abstract void renderPrometheus(StringBuilder sb);
+
+        abstract void renderSummary(StringBuilder sb);
+
+        String series(String suffix, String extraLabel) {
+            String all = labels.isEmpty() ? extraLabel : extraLabel.isEmpty() ? labels : labels + "," + extraLabel;
+            return name + suffix + (all.isEmpty() ? "" : "{" + all + "}");
+        }
+    }
+
+    public static final class Counter extends Metric {
+        private final AtomicLong value = new AtomicLong();
+
+        Counter(String name, String labels, String help) {
+            super(name, labels, help);
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void renderPrometheus(StringBuilder sb) {
+            sb.append(series("", "")).append(' ').append(value.get()).append('\n');
+        }
+
+        @Override
+        void renderSummary(StringBuilder sb) {
+            sb.append("\n§a").append(series("", "")).append(": §e").append(value.get());
+        }
+    }
+
+    public static final class Gauge extends Metric {
+        private volatile long value;
+
+        Gauge(String name, String help) {
+            super(name, "", help);
+        }
+
+        public void set(long value) {
+            this.value = value;
+        }
+
+        public long get() {
+            return value;
+        }
+
+        @Override
+        String type() {
+            return "gauge";
+        }
+
+        @Override
+        void renderPrometheus(StringBuilder sb) {
+            sb.append(name).append(' ').append(value).append('\n');
+        }
+
+        @Override
+        void renderSummary(StringBuilder sb) {
+            sb.append("\n§a").append(help).append(": §e").append(value);
+        }
+    }
+
+    // Гистограмма длительностей с фиксированными корзинами от 1 мкс до 10 с
+    public static final class Histogram extends Metric {
+        private static final long[] BOUNDS = {
+                1_000L, 5_000L, 10_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+                1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+                100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 10_000_000_000L
+        };
+        private static final String[] LE = new String[BOUNDS.length];
+
+        static {
+            for (int i = 0; i < BOUNDS.length; i++) {
+                LE[i] = "le=\"" + BigDecimal.valueOf(BOUNDS[i], 9).stripTrailingZeros().toPlainString() + "\"";
+            }
+        }
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Histogram(String name, String labels, String help) {
+            super(name, labels, help);
+        }
+
+        public void observe(long nanos) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && nanos > BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sumNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        // Удобная форма для замера: observeSince(System.nanoTime() в начале)
+        public void observeSince(long startNanos) {
+            observe(System.nanoTime() - startNanos);
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        // Верхняя граница корзины, в которую попадает квантиль (приблизительно)
+        public long quantileNanos(double q) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return BOUNDS[i];
+                }
+            }
+            return maxNanos.get();
+        }
+
+        @Override
+        String type() {
+            return "histogram";
+        }
+
+        @Override
+        void renderPrometheus(StringBuilder sb) {
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                cumulative += buckets.get(i);
+                sb.append(series("_bucket", LE[i])).append(' ').append(cumulative).append('\n');
+            }
+            cumulative += buckets.get(BOUNDS.length);
+            sb.append(series("_bucket", "le=\"+Inf\"")).append(' ').append(cumulative).append('\n');
+            sb.append(series("_sum", "")).append(' ').append(sumNanos.get() / 1e9).append('\n');
+            sb.append(series("_count", "")).append(' ').append(count.get()).append('\n');
+        }
+
+        @Override
+        void renderSummary(StringBuilder sb) {
+            long total = count.get();
+            sb.append("\n§a").append(help).append(": §e");
+            if (total == 0) {
+                sb.append("нет данных");
+                return;
+            }
+            sb.append(total).append(" раз, среднее ").append(formatNanos(sumNanos.get() / total))
+                    .append(", p99 ≤ ").append(formatNanos(quantileNanos(0.99)))
+                    .append(", макс ").append(formatNanos(maxNanos.get()));
+        }
+    }
+
+    // Текст для pvd stats
+    public static String summary() {
+        StringBuilder sb = new StringBuilder("§6Статистика PVDTime:");
+        for (Metric metric : ALL) {
+            metric.renderSummary(sb);
+        }
+        return sb.toString();
+    }
+
+    // Текстовый формат Prometheus (для node exporter textfile collector)
+    public static String prometheus() {
+        StringBuilder sb = new StringBuilder();
+        String previous = null;
+        for (Metric metric : ALL) {
+            if (!metric.name.equals(previous)) {
+                sb.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+                sb.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+                previous = metric.name;
+            }
+            metric.renderPrometheus(sb);
+        }
+        return sb.toString();
+    }
+
+    public static void writePrometheus(Path file) throws IOException {
+        String text = prometheus();
+        PlaytimeWriter.writeAtomically(file, writer -> writer.write(text));
+    }
+
+    static String formatNanos(long nanos) {
+        if (nanos < 1_000_000L) {
+            return (nanos / 1000) + " мкс";
+        }
+        if (nanos < 1_000_000_000L) {
+            return String.format("%.2f мс", nanos / 1e6);
+        }
+        return String.format("%.2f с", nanos / 1e9);
+    }
+
+    private static Histogram histogram(String name, String labels, String help) {
+        Histogram histogram = new Histogram(name, labels, help);
+        ALL.add(histogram);
+        return histogram;
+    }
+
+    private static Counter counter(String name, String labels, String help) {
+        Counter counter = new Counter(name, labels, help);
+        ALL.add(counter);
+        return counter;
+    }
+
+    private static Gauge gauge(String name, String help) {
+        Gauge gauge = new Gauge(name, help);
+        ALL.add(gauge);
+        return gauge;
+    }
+}
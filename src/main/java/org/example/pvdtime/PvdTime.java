@@ -1,26 +1,38 @@
 package org.example.pvdtime;
 
-import com.google.gson.*;
+import com.mojang.brigadier.Command;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.player.AttackBlockCallback;
+import net.fabricmc.fabric.api.event.player.AttackEntityCallback;
+import net.fabricmc.fabric.api.event.player.UseBlockCallback;
+import net.fabricmc.fabric.api.event.player.UseEntityCallback;
+import net.fabricmc.fabric.api.message.v1.ServerMessageEvents;
+import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.network.packet.c2s.play.PlayerMoveC2SPacket;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.text.Text;
+import net.minecraft.util.ActionResult;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDate;
-import java.time.ZoneId;
-import java.time.temporal.WeekFields;
+import java.time.Clock;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static net.minecraft.server.command.CommandManager.argument;
@@ -28,193 +40,169 @@ import static net.minecraft.server.command.CommandManager.literal;
 
 public class PvdTime implements ModInitializer {
 
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-    private JsonObject playtimeData = new JsonObject();
-    private long lastUpdateTime;
-    private final long updateIntervalMillis = TimeUnit.MINUTES.toMillis(1);
-    private final long logSaveIntervalMillis = TimeUnit.MINUTES.toMillis(1);
-    private final long weeklyCheckIntervalMillis = TimeUnit.MINUTES.toMillis(1);
-    private long lastLogSaveTime;
-    private long lastWeeklyCheckTime;
-    private String lastProcessedWeekId = getCurrentWeekId();
-    private int requiredMinutes = 180; // Время, необходимое для получения статуса PVD
-    private final Map<UUID, PlayerPosition> playerPositions = new HashMap<>();
-    private int afkTimeThreshold = 5; // Время AFK по умолчанию (минуты)
-    private boolean afkCheckEnabled = true; // Переменная для хранения статуса проверки AFK
+    private static PvdTime instance;  // для вызовов из миксинов
+
+    private final PvdConfig config = new PvdConfig();
+    private final PvdCore core = new PvdCore(Paths.get("playtime_logs"), config, Clock.systemDefaultZone());
+    private final PlaytimeHud hud = new PlaytimeHud();
+    private final AsyncCommands commands = new AsyncCommands(2, SessionTracker.TICKS_PER_SECOND);
+    private final PlaytimeExport export = new PlaytimeExport(core.directory, core.archive);
+    private MinecraftServer server;
 
 
     @Override
     public void onInitialize() {
+        instance = this;
         loadConfig();
-        loadPlaytimeData();
-        lastLogSaveTime = System.currentTimeMillis();
-        lastWeeklyCheckTime = lastLogSaveTime;
-        ServerTickEvents.START_SERVER_TICK.register(this::onServerTick);
+        core.setOnNewWeek(() -> {
+            if (server != null) {
+                applyTags(server);
+            }
+        });
+        core.start(this::applyTag);
+        if (config.hudSeconds > 0) {
+            // Каждый игрок сверяется раз в hudSeconds, пакет уходит только если показанное изменилось
+            core.scheduler.spread(config.hudSeconds * SessionTracker.TICKS_PER_SECOND, this::hudPlayers, this::updateHud);
+        }
+        startMetricsDump();
+
+        PayloadTypeRegistry.playS2C().register(PlaytimeHudPayload.ID, PlaytimeHudPayload.CODEC);
+
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> this.server = server);
+        ServerTickEvents.START_SERVER_TICK.register(server -> core.serverTick());
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
+            ServerPlayerEntity player = handler.getPlayer();
+            PlayerRecord record = core.join(player.getUuid(), player.getGameProfile().getName(), player.getYaw(), player.getPitch());
+            setTag(player, record.isPvd());     // статус мог измениться, пока игрок был офлайн
+            if (config.hudSeconds > 0 && ServerPlayNetworking.canSend(player, PlaytimeHudPayload.ID)) {
+                hud.join(player.getUuid());
+                updateHud(player);                  // полное состояние сразу, не дожидаясь очереди
+            }
+        });
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            core.leave(handler.getPlayer().getUuid());
+            hud.leave(handler.getPlayer().getUuid());
+            commands.leave(handler.getPlayer().getUuid());
+        });
+
+        // Сигналы активности для AFK (движение и команды приходят из миксина)
+        ServerMessageEvents.CHAT_MESSAGE.register((message, sender, params) -> core.afk.activity(sender.getUuid(), core.tick));
+        UseBlockCallback.EVENT.register((player, world, hand, hitResult) -> onInteraction(player));
+        UseEntityCallback.EVENT.register((player, world, hand, entity, hitResult) -> onInteraction(player));
+        AttackBlockCallback.EVENT.register((player, world, hand, pos, direction) -> onInteraction(player));
+        AttackEntityCallback.EVENT.register((player, world, hand, entity, hitResult) -> onInteraction(player));
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            core.stop();
+            commands.close();
+            export.close();
+        });
 
         CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
             registerCommands(dispatcher);
         });
     }
 
-    private void onServerTick(MinecraftServer server) {
-        long currentTime = System.currentTimeMillis();
-
-        if (currentTime - lastUpdateTime >= updateIntervalMillis) {
-            updatePlaytime(server);
-            lastUpdateTime = currentTime;
-        }
-
-        if (currentTime - lastLogSaveTime >= logSaveIntervalMillis) {
-            savePlaytimeData();
-            lastLogSaveTime = currentTime;
-        }
+    private static Command<ServerCommandSource> timed(Command<ServerCommandSource> command) {
+        return context -> {
+            long start = System.nanoTime();
+            try {
+                return command.run(context);
+            } finally {
+                PvdMetrics.COMMAND.observeSince(start);
+            }
+        };
+    }
 
-        if (currentTime - lastWeeklyCheckTime >= weeklyCheckIntervalMillis) {
-            checkWeeklyPlaytime(server);
-            lastWeeklyCheckTime = currentTime;
+    // Файл для textfile collector node exporter пишется отдельным потоком, тик в этом не участвует
+    private void startMetricsDump() {
+        if (config.metricsIntervalSeconds <= 0) {
+            return;
         }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "PVDTime-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Path file = core.directory.resolve("metrics.prom");
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                PvdMetrics.writePrometheus(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, config.metricsIntervalSeconds, config.metricsIntervalSeconds, TimeUnit.SECONDS);
     }
 
-    private String getPreviousWeekId() {
-        LocalDate now = LocalDate.now(ZoneId.systemDefault());
-        LocalDate previousWeekDate = now.minusWeeks(1); // Вычитаем неделю
-        int year = previousWeekDate.get(WeekFields.ISO.weekBasedYear());
-        int week = previousWeekDate.get(WeekFields.ISO.weekOfWeekBasedYear());
-        return String.format("%d-W%02d", year, week);
+    public static void onPlayerMove(ServerPlayerEntity player, PlayerMoveC2SPacket packet) {
+        if (instance == null) return;
+        // В транспорте и в воде игрока может нести без его участия - там считаем только поворот камеры
+        boolean passive = player.hasVehicle() || player.isTouchingWater();
+        instance.core.afk.move(player.getUuid(), packet.changesPosition(), passive,
+                packet.getYaw(player.getYaw()), packet.getPitch(player.getPitch()), instance.core.tick);
     }
 
-    private void updatePlaytime(MinecraftServer server) {
-        String currentWeekId = getCurrentWeekId();
-
-        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
-            String playerName = player.getName().getString();
-
-            // Проверяем AFK статус игрока, если проверка включена
-            if (afkCheckEnabled && checkAFKStatus(player)) {
-                continue; // Не засчитываем AFK игроков, если проверка включена
-            }
-
-            if (!playtimeData.has(playerName)) {
-                JsonObject playerEntry = new JsonObject();
-                JsonObject weeks = new JsonObject();
-                weeks.addProperty(currentWeekId, 0);
-                playerEntry.add("weeks", weeks);
-                playerEntry.addProperty("PVD", false);
-                playtimeData.add(playerName, playerEntry);
-            }
-
-            JsonObject playerEntry = playtimeData.getAsJsonObject(playerName);
-            JsonObject weeks = playerEntry.getAsJsonObject("weeks");
-
-            if (!weeks.has(currentWeekId)) {
-                weeks.addProperty(currentWeekId, 0);
-            }
-
-            long currentMinutes = weeks.get(currentWeekId).getAsLong();
-            weeks.addProperty(currentWeekId, currentMinutes + 1);
-        }
+    public static void onPlayerActivity(ServerPlayerEntity player) {
+        if (instance == null) return;
+        instance.core.afk.activity(player.getUuid(), instance.core.tick);
     }
 
-    private void checkWeeklyPlaytime(MinecraftServer server) {
-        String currentWeekId = getCurrentWeekId();
-
-        // Проверяем, изменилась ли неделя
-        if (!currentWeekId.equals(lastProcessedWeekId)) {
-            resetWeeklyData();                       // Сбрасываем счетчики
-            lastProcessedWeekId = currentWeekId;     // Обновляем последнюю обработанную неделю
+    private ActionResult onInteraction(PlayerEntity player) {
+        if (player instanceof ServerPlayerEntity) {
+            core.afk.activity(player.getUuid(), core.tick);
         }
+        return ActionResult.PASS;
+    }
 
+    // Полный обход онлайна - только после смены недели, когда статус сброшен у всех сразу
+    private void applyTags(MinecraftServer server) {
         for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
-            String playerName = player.getName().getString();
-
-            if (!playtimeData.has(playerName)) continue;
-
-            JsonObject playerEntry = playtimeData.getAsJsonObject(playerName);
-            JsonObject weeks = playerEntry.getAsJsonObject("weeks");
-            long weekMinutes = weeks.has(currentWeekId) ? weeks.get(currentWeekId).getAsLong() : 0;
-
-            boolean shouldHaveTag = weekMinutes >= requiredMinutes;
-            boolean hasTag = player.getCommandTags().contains("PVD");
-
-            if (shouldHaveTag && !hasTag) {
-                player.addCommandTag("PVD");
-                playerEntry.addProperty("PVD", true);
-                System.out.println("[PVDtime] Добавлен тег PVD для " + playerName);
-            } else if (!shouldHaveTag && hasTag) {
-                player.removeCommandTag("PVD");
-                playerEntry.addProperty("PVD", false);
-                System.out.println("[PVDtime] Удален тег PVD для " + playerName);
-            }
+            PlayerRecord record = core.playtimeData.get(player.getUuid());
+            setTag(player, record != null && record.isPvd());
         }
     }
 
-    private void archivePlaytimeData(String weekId) {
-        JsonObject archiveData = new JsonObject();
-        for (Map.Entry<String, JsonElement> e : playtimeData.entrySet()) {
-            String playerName = e.getKey();
-            JsonObject playerEntry = e.getValue().getAsJsonObject();
-            JsonObject weeks = playerEntry.getAsJsonObject("weeks");
-            if (weeks.has(weekId)) {
-                JsonObject oneWeekOnly = new JsonObject();
-                JsonObject w = new JsonObject();
-                w.addProperty(weekId, weeks.get(weekId).getAsLong());
-                oneWeekOnly.add("weeks", w);
-                oneWeekOnly.addProperty("PVD", playerEntry.get("PVD").getAsBoolean());
-                archiveData.add(playerName, oneWeekOnly);
-            }
+    // Статус игрока перешел порог; офлайн-игрок получит тег при входе
+    private void applyTag(PlayerRecord record, boolean pvd) {
+        ServerPlayerEntity player = server != null ? server.getPlayerManager().getPlayer(record.getUuid()) : null;
+        if (player != null) {
+            setTag(player, pvd);
         }
-
-        File archiveFile = Paths.get("playtime_logs", "archive_" + weekId + ".json").toFile();
-        archiveFile.getParentFile().mkdirs();
-        try (FileWriter writer = new FileWriter(archiveFile)) {
-            gson.toJson(archiveData, writer);
-            System.out.println("[PVDTime] Архив недели " + weekId + " создан: " + archiveFile.getAbsolutePath());
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
-    }
-
-
-    private void resetWeeklyData() {
-
-        String previousWeekId = getPreviousWeekId();
-        archivePlaytimeData(previousWeekId);
-
-        playtimeData = new JsonObject();
-
-        savePlaytimeData();
     }
 
-    private String getCurrentWeekId() {
-        LocalDate now = LocalDate.now(ZoneId.systemDefault());
-        int year = now.get(WeekFields.ISO.weekBasedYear());
-        int week = now.get(WeekFields.ISO.weekOfWeekBasedYear());
-        return String.format("%d-W%02d", year, week);
+    private void setTag(ServerPlayerEntity player, boolean pvd) {
+        boolean hasTag = player.getCommandTags().contains("PVD");
+        if (pvd && !hasTag) {
+            player.addCommandTag("PVD");
+            System.out.println("[PVDtime] Добавлен тег PVD для " + player.getGameProfile().getName());
+        } else if (!pvd && hasTag) {
+            player.removeCommandTag("PVD");
+            System.out.println("[PVDtime] Удален тег PVD для " + player.getGameProfile().getName());
+        }
     }
 
-    private void savePlaytimeData() {
-        File file = Paths.get("playtime_logs", "lastlog.json").toFile();
-        file.getParentFile().mkdirs();
-
-        try (FileWriter writer = new FileWriter(file)) {
-            gson.toJson(playtimeData, writer);
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Снимок онлайна на цикл сверки HUD (сам список игроков меняется при входе и выходе)
+    private List<ServerPlayerEntity> hudPlayers() {
+        if (server == null || hud.size() == 0) {
+            return List.of();
         }
+        return new ArrayList<>(server.getPlayerManager().getPlayerList());
     }
 
-    private void loadPlaytimeData() {
-        File file = Paths.get("playtime_logs", "lastlog.json").toFile();
-
-        if (!file.exists()) {
-            playtimeData = new JsonObject();
+    private void updateHud(ServerPlayerEntity player) {
+        UUID uuid = player.getUuid();
+        if (!hud.isTracked(uuid)) {
+            return;     // без мода на клиенте или уже вышел
+        }
+        PlayerRecord record = core.playtimeData.get(uuid);
+        if (record == null) {
             return;
         }
-
-        try (FileReader reader = new FileReader(file)) {
-            playtimeData = JsonParser.parseReader(reader).getAsJsonObject();
-        } catch (IOException e) {
-            e.printStackTrace();
+        long seconds = core.sessions.liveSeconds(record, core.tick) + (core.sync != null ? core.sync.otherSeconds(uuid) : 0);
+        PlaytimeHudPayload payload = hud.update(uuid, (int) (seconds / 60), config.requiredMinutes,
+                core.leaderboard.rankOf(record), record.isPvd());
+        if (payload != null) {
+            ServerPlayNetworking.send(player, payload);
+            PvdMetrics.HUD_PACKETS.add(1);
         }
     }
 
@@ -223,200 +211,226 @@ public class PvdTime implements ModInitializer {
                 literal("pvd")
                         // Команда pvd list
                         .then(literal("list")
-                                .executes(context -> {
-                                    String currentWeekId = getCurrentWeekId();
-                                    StringBuilder sb = new StringBuilder("§6Все игроки и их время:");
-
-                                    List<Map.Entry<String, Long>> playersList = new ArrayList<>();
-                                    for (String playerName : playtimeData.keySet()) {
-                                        JsonObject playerEntry = playtimeData.getAsJsonObject(playerName);
-                                        JsonObject weeks = playerEntry.getAsJsonObject("weeks");
-                                        long time = weeks.has(currentWeekId) ? weeks.get(currentWeekId).getAsLong() : 0;
-                                        if (time > 0) {
-                                            playersList.add(new AbstractMap.SimpleEntry<>(playerName, time));
-                                        }
-                                    }
+                                .executes(timed(context -> sendLeaderboardPage(context.getSource(), 1)))
+                                .then(literal("page")
+                                        .then(argument("page", IntegerArgumentType.integer(1))
+                                                .executes(timed(context -> sendLeaderboardPage(context.getSource(),
+                                                        IntegerArgumentType.getInteger(context, "page"))))
+                                        )
+                                )
+                                .then(literal("top")
+                                        .then(argument("count", IntegerArgumentType.integer(1, 100))
+                                                .executes(timed(context -> {
+                                                    int count = IntegerArgumentType.getInteger(context, "count");
+                                                    long version = core.leaderboard.versionOfPages(0, (count - 1) / PlaytimeViews.PAGE_SIZE);
+                                                    return async(context.getSource(), "top:" + count, version, () -> {
+                                                        List<PlaytimeViews.Row> rows = PlaytimeViews.topSnapshot(core.leaderboard, count);
+                                                        return () -> PlaytimeViews.top(rows);
+                                                    });
+                                                }))
+                                        )
+                                )
+                                .then(literal("active")
+                                        .executes(timed(context -> async(context.getSource(), "active", core.leaderboard.getVersion(), () -> {
+                                            List<PlaytimeViews.Row> rows = PlaytimeViews.activeSnapshot(core.leaderboard);
+                                            return () -> PlaytimeViews.active(rows);
+                                        })))
+                                )
+                                .then(literal("last") // Обновленная команда
+                                        .executes(timed(context -> sendArchivedWeek(context.getSource(), core.getPreviousWeekId(),
+                                                "§6Время игроков за прошлую неделю:", "§cНет данных за прошлую неделю.")))
+                                )
+                                .then(literal("range")
+                                        .then(argument("range", StringArgumentType.word())
+                                                .suggests((ctx, b) -> b.suggest("1d").suggest("7d").suggest(PlaytimeHistory.DAYS + "d").buildFuture())
+                                                .executes(timed(ctx -> sendRange(ctx.getSource(), StringArgumentType.getString(ctx, "range"), 1)))
+                                                .then(argument("page", IntegerArgumentType.integer(1))
+                                                        .executes(timed(ctx -> sendRange(ctx.getSource(),
+                                                                StringArgumentType.getString(ctx, "range"),
+                                                                IntegerArgumentType.getInteger(ctx, "page"))))
+                                                )
+                                        )
+                                )
+                                .then(literal("week")
+                                        .then(argument("week", StringArgumentType.word())
+                                                .suggests((ctx, b) -> {
+                                                    for (String week : core.archive.weeks()) {
+                                                        b.suggest(week);
+                                                    }
+                                                    return b.buildFuture();
+                                                })
+                                                .executes(timed(context -> {
+                                                    String weekId = StringArgumentType.getString(context, "week");
+                                                    return sendArchivedWeek(context.getSource(), weekId,
+                                                            "§6Время игроков за неделю " + weekId + ":", "§cНет данных за неделю " + weekId + ".");
+                                                }))
+                                        )
+                                )
+                        )
 
-                                    playersList.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
-                                    for (Map.Entry<String, Long> entry : playersList) {
-                                        long minutes = entry.getValue();
-                                        long hours = minutes / 60;
-                                        long remainingMinutes = minutes % 60;
-                                        sb.append("\n§a- ").append(entry.getKey()).append(": §e").append(hours).append("ч ").append(remainingMinutes).append("м");
+                        // Команда pvd top alltime [количество] - лучшие за все время
+                        .then(literal("top")
+                                .then(literal("alltime")
+                                        .executes(timed(ctx -> sendAllTime(ctx.getSource(), 10)))
+                                        .then(argument("count", IntegerArgumentType.integer(1, 100))
+                                                .executes(timed(ctx -> sendAllTime(ctx.getSource(),
+                                                        IntegerArgumentType.getInteger(ctx, "count"))))
+                                        )
+                                )
+                        )
 
+                        // Команда pvd rank [игрок] - место в таблице недели
+                        .then(literal("rank")
+                                .executes(timed(ctx -> {
+                                    ServerPlayerEntity self = ctx.getSource().getPlayer();
+                                    if (self == null) {
+                                        ctx.getSource().sendFeedback(() -> Text.literal("§cУкажите игрока: pvd rank <игрок>"), false);
+                                        return 0;
                                     }
+                                    return sendRank(ctx.getSource(), self.getGameProfile().getName());
+                                }))
+                                .then(argument("player", StringArgumentType.word())
+                                        .suggests(playerNames())
+                                        .executes(timed(ctx -> sendRank(ctx.getSource(), StringArgumentType.getString(ctx, "player"))))
+                                )
+                        )
 
-                                    if (playersList.isEmpty()) {
-                                        sb.append("\n§cНет данных о времени игроков.");
-                                    }
+                        // Команда pvd history <игрок> [недель] - время игрока по неделям из архива
+                        .then(literal("history")
+                                .then(argument("player", StringArgumentType.word())
+                                        .suggests(playerNames())
+                                        .executes(timed(ctx -> sendHistory(ctx.getSource(), StringArgumentType.getString(ctx, "player"), 8)))
+                                        .then(argument("weeks", IntegerArgumentType.integer(1, 520))
+                                                .executes(timed(ctx -> sendHistory(ctx.getSource(),
+                                                        StringArgumentType.getString(ctx, "player"),
+                                                        IntegerArgumentType.getInteger(ctx, "weeks"))))
+                                        )
+                                )
+                        )
 
+                        // Команда pvd stats - метрики мода (только админам)
+                        .then(literal("stats")
+                                .requires(source -> source.hasPermissionLevel(4))
+                                // Метрики потокобезопасны, снимок не нужен
+                                .executes(timed(ctx -> async(ctx.getSource(), "stats", () -> PvdMetrics::summary)))
+                        )
 
-                                    context.getSource().sendFeedback(() -> Text.literal(sb.toString()), false);
-                                    return 1;
-                                })
-                                .then(literal("active")
-                                        .executes(context -> {
-                                            String currentWeekId = getCurrentWeekId();
-                                            StringBuilder sb = new StringBuilder("§6Активные PVD игроки и их время:");
-
-                                            List<Map.Entry<String, Long>> playersList = new ArrayList<>();
-                                            for (String playerName : playtimeData.keySet()) {
-                                                JsonObject playerEntry = playtimeData.getAsJsonObject(playerName);
-                                                if (playerEntry.get("PVD").getAsBoolean()) {
-                                                    JsonObject weeks = playerEntry.getAsJsonObject("weeks");
-                                                    long time = weeks.has(currentWeekId) ? weeks.get(currentWeekId).getAsLong() : 0;
-                                                    playersList.add(new AbstractMap.SimpleEntry<>(playerName, time));
-                                                }
-                                            }
-
-                                            playersList.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
-                                            for (Map.Entry<String, Long> entry : playersList) {
-                                                long minutes = entry.getValue();
-                                                long hours = minutes / 60;
-                                                long remainingMinutes = minutes % 60;
-                                                sb.append("\n§a- ").append(entry.getKey()).append(": §e").append(hours).append("ч ").append(remainingMinutes).append("м");
-                                            }
-
-                                            if (playersList.isEmpty()) {
-                                                sb.append("\n§cНет активных PVD игроков.");
-                                            }
-
-                                            context.getSource().sendFeedback(() -> Text.literal(sb.toString()), false);
-                                            return 1;
-                                        })
-                                )
-                                .then(literal("last") // Обновленная команда
-                                        .executes(context -> {
-                                            String previousWeekId = getPreviousWeekId(); // Получаем ID прошлой недели
-                                            File archiveFile = Paths.get("playtime_logs", "archive_" + previousWeekId + ".json").toFile();
-
-                                            if (!archiveFile.exists()) {
-                                                context.getSource().sendFeedback(() -> Text.literal("§cНет данных за прошлую неделю."), false);
-                                                return 1;
-                                            }
-
-                                            try (FileReader reader = new FileReader(archiveFile)) {
-                                                JsonObject archiveData = JsonParser.parseReader(reader).getAsJsonObject();
-                                                StringBuilder sb = new StringBuilder("§6Время игроков за прошлую неделю:");
-
-                                                List<Map.Entry<String, Long>> playersList = new ArrayList<>();
-                                                for (String playerName : archiveData.keySet()) {
-                                                    JsonObject playerEntry = archiveData.getAsJsonObject(playerName);
-                                                    JsonObject weeks = playerEntry.getAsJsonObject("weeks");
-                                                    long time = weeks.has(previousWeekId) ? weeks.get(previousWeekId).getAsLong() : 0;
-                                                    if (time > 0) {
-                                                        playersList.add(new AbstractMap.SimpleEntry<>(playerName, time));
+                        // Команда pvd export <csv|ndjson> <период> - выгрузка в playtime_logs/exports (только админам)
+                        .then(literal("export")
+                                .requires(source -> source.hasPermissionLevel(4))
+                                .then(argument("format", StringArgumentType.word())
+                                        .suggests((ctx, b) -> b.suggest("csv").suggest("ndjson").buildFuture())
+                                        .then(argument("range", StringArgumentType.word())
+                                                .suggests((ctx, b) -> {
+                                                    b.suggest("current").suggest("4w").suggest("all");
+                                                    for (String week : core.archive.lastWeeks(8)) {
+                                                        b.suggest(week);
                                                     }
-                                                }
-
-                                                playersList.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
-                                                for (Map.Entry<String, Long> entry : playersList) {
-                                                    long minutes = entry.getValue();
-                                                    long hours = minutes / 60;
-                                                    long remainingMinutes = minutes % 60;
-                                                    sb.append("\n§a- ").append(entry.getKey()).append(": §e").append(hours).append("ч ").append(remainingMinutes).append("м");
-                                                }
-
-                                                if (playersList.isEmpty()) {
-                                                    sb.append("\n§cНет данных о времени игроков.");
-                                                }
-
-                                                context.getSource().sendFeedback(() -> Text.literal(sb.toString()), false);
-                                                return 1;
-                                            } catch (IOException e) {
-                                                e.printStackTrace();
-                                                context.getSource().sendFeedback(() -> Text.literal("§cОшибка при загрузке данных."), false);
-                                                return 0;
-                                            }
-                                        })
+                                                    return b.buildFuture();
+                                                })
+                                                .executes(timed(ctx -> sendExport(ctx.getSource(),
+                                                        StringArgumentType.getString(ctx, "format"),
+                                                        StringArgumentType.getString(ctx, "range"))))
+                                        )
                                 )
                         )
 
                         .then(literal("settings")
                                 .requires(source -> source.hasPermissionLevel(4))
                                 // pvd settings (без аргументов)
-                                .executes(ctx -> {
-                                    String afkStatus = afkCheckEnabled ? "§aвключен" : "§cотключен";
+                                .executes(timed(ctx -> {
+                                    String afkStatus = config.afkCheckEnabled ? "§aвключен" : "§cотключен";
                                     ctx.getSource().sendFeedback(() -> Text.literal(
                                             "§6Текущие настройки:\n" +
                                                     "§e- Режим AFK: " + afkStatus + "\n" +
-                                                    "§e- Время для AFK: " + afkTimeThreshold + " мин\n" +
-                                                    "§e- Требуемое время PVD: " + requiredMinutes + " мин"
+                                                    "§e- Время для AFK: " + config.afkTimeThreshold + " мин\n" +
+                                                    "§e- Требуемое время PVD: " + config.requiredMinutes + " мин"
                                     ), false);
                                     return 1;
-                                })
+                                }))
                                 // pvd settings afk
                                 .then(literal("afk")
-                                        .executes(ctx -> {
-                                            String status = afkCheckEnabled ? "§aвключен" : "§cотключен";
+                                        .executes(timed(ctx -> {
+                                            String status = config.afkCheckEnabled ? "§aвключен" : "§cотключен";
                                             ctx.getSource().sendFeedback(() -> Text.literal(
                                                     "§6Режим AFK: " + status + "\n" +
-                                                            "§eТекущий порог: " + afkTimeThreshold + " мин"
+                                                            "§eТекущий порог: " + config.afkTimeThreshold + " мин"
                                             ), false);
                                             return 1;
-                                        })
+                                        }))
                                         .then(literal("work")
                                                 .then(argument("state", StringArgumentType.word())
                                                         .suggests((ctx, b) -> b.suggest("on").suggest("off").buildFuture())
-                                                        .executes(ctx -> {
+                                                        .executes(timed(ctx -> {
                                                             String s = StringArgumentType.getString(ctx, "state");
-                                                            afkCheckEnabled = s.equalsIgnoreCase("on");
+                                                            config.afkCheckEnabled = s.equalsIgnoreCase("on");
+                                                            core.afk.setEnabled(config.afkCheckEnabled, core.tick);
                                                             saveConfig();
-                                                            String status = afkCheckEnabled ? "§aвключен" : "§cотключен";
+                                                            String status = config.afkCheckEnabled ? "§aвключен" : "§cотключен";
                                                             ctx.getSource().sendFeedback(() -> Text.literal(
                                                                     "§6Режим AFK: " + status
                                                             ), false);
                                                             return 1;
-                                                        })
+                                                        }))
                                                 )
                                         )
                                         .then(literal("time")
                                                 .then(argument("minutes", IntegerArgumentType.integer(1))
-                                                        .executes(ctx -> {
+                                                        .executes(timed(ctx -> {
                                                             int m = IntegerArgumentType.getInteger(ctx, "minutes");
-                                                            afkTimeThreshold = m;
+                                                            config.afkTimeThreshold = m;
+                                                            core.afk.setThresholdMinutes(m);
                                                             saveConfig();
                                                             ctx.getSource().sendFeedback(() -> Text.literal(
                                                                     "§6AFK таймер установлен на §e" + m + " мин"
                                                             ), false);
                                                             return 1;
-                                                        })
+                                                        }))
                                                 )
                                         ))
 
                                         // pvd settings time
                                 .then(literal("time")
-                                        .executes(ctx -> {
+                                        .executes(timed(ctx -> {
                                             ctx.getSource().sendFeedback(() -> Text.literal(
-                                                    "§6Текущий лимит PVD: §e" + requiredMinutes + " мин"
+                                                    "§6Текущий лимит PVD: §e" + config.requiredMinutes + " мин"
                                             ), false);
                                             return 1;
-                                        })
+                                        }))
                                         .then(literal("default")
                                                 .then(argument("minutes", IntegerArgumentType.integer(1))
-                                                        .executes(ctx -> {
+                                                        .executes(timed(ctx -> {
                                                             int m = IntegerArgumentType.getInteger(ctx, "minutes");
-                                                            requiredMinutes = m;
+                                                            config.requiredMinutes = m;
                                                             saveConfig();
-                                                            checkWeeklyPlaytime(ctx.getSource().getServer());
+                                                            // Пересчет только тех, кто между старым и новым порогом
+                                                            core.pvdTracker.setThresholdMinutes(m);
+                                                            if (core.sync != null) {
+                                                                for (UUID uuid : core.sync.knownPlayers()) {
+                                                                    PlayerRecord record = core.playtimeData.get(uuid);
+                                                                    if (record != null) {
+                                                                        core.pvdTracker.markDirty(record);
+                                                                    }
+                                                                }
+                                                            }
                                                             ctx.getSource().sendFeedback(() -> Text.literal(
                                                                     "§6Новый лимит PVD: §e" + m + " мин"
                                                             ), false);
                                                             return 1;
-                                                        })
+                                                        }))
                                                 )
                                         )
                                         .then(literal("clear")
                                                 .then(argument("player", StringArgumentType.word())
-                                                        .executes(ctx -> {
+                                                        .suggests(playerNames())
+                                                        .executes(timed(ctx -> {
                                                                     String playerName = StringArgumentType.getString(ctx, "player");
-                                                                    String currentWeekId = getCurrentWeekId();
+                                                                    PlayerRecord record = core.playtimeData.getByName(playerName);
 
-                                                                    if (playtimeData.has(playerName)) {
-                                                                        JsonObject playerEntry = playtimeData.getAsJsonObject(playerName);
-                                                                        JsonObject weeks = playerEntry.getAsJsonObject("weeks");
-                                                                        weeks.addProperty(currentWeekId, 0);
-                                                                        playerEntry.addProperty("PVD", false);
+                                                                    if (record != null) {
+                                                                        core.playtimeData.setSeconds(record, 0);
+                                                                        core.playtimeData.setPvd(record, false);
+                                                                        core.sessions.discardPending(record.getUuid(), core.tick);
 
                                                                         // Обновляем тег игрока
                                                                         ServerPlayerEntity player = ctx.getSource().getServer()
@@ -425,7 +439,7 @@ public class PvdTime implements ModInitializer {
                                                                             player.removeCommandTag("PVD");
                                                                         }
 
-                                                                        savePlaytimeData();
+                                                                        core.savePlaytimeData();
                                                                         ctx.getSource().sendFeedback(() ->
                                                                                 Text.literal("§6Счетчик игрока " + playerName + " обнулен"), false);
                                                                     } else {
@@ -433,16 +447,12 @@ public class PvdTime implements ModInitializer {
                                                                                 Text.literal("§cИгрок " + playerName + " не найден"), false);
                                                                     }
                                                                     return 1;
-                                                                })
+                                                                }))
                                                 )
                                                 .then(literal("all")
-                                                        .executes(ctx -> {
-                                                            for(String playerName : playtimeData.keySet()) {
-                                                                JsonObject playerEntry = playtimeData.getAsJsonObject(playerName);
-                                                                JsonObject weeks = playerEntry.getAsJsonObject("weeks");
-                                                                weeks.entrySet().forEach(entry -> entry.setValue(gson.toJsonTree(0)));
-                                                                playerEntry.addProperty("PVD", false);
-                                                            }
+                                                        .executes(timed(ctx -> {
+                                                            core.playtimeData.clearAll();
+                                                            core.sessions.discardAllPending(core.tick);
 
                                                             // Удаляем теги у всех игроков
                                                             MinecraftServer server = ctx.getSource().getServer();
@@ -450,42 +460,35 @@ public class PvdTime implements ModInitializer {
                                                                 player.removeCommandTag("PVD");
                                                             }
 
-                                                            savePlaytimeData();
+                                                            // Сброс - одна операция в журнале или players.dat; в режиме "json"
+                                                            // его запишет очередное сохранение в фоне, а не сама команда
                                                             ctx.getSource().sendFeedback(() ->
                                                                     Text.literal("§6Все счетчики обнулены"), false);
                                                             return 1;
-                                                        })
+                                                        }))
                                                 )
                                         )
                                         .then(literal("set")
                                                 .then(argument("player", StringArgumentType.word())
+                                                        .suggests(playerNames())
                                                         .then(argument("time", IntegerArgumentType.integer())
-                                                                .executes(ctx -> {
+                                                                .executes(timed(ctx -> {
                                                                     String playerName = StringArgumentType.getString(ctx, "player");
                                                                     int newTime = IntegerArgumentType.getInteger(ctx, "time");
-                                                                    String currentWeekId = getCurrentWeekId();
-
-                                                                    if (!playtimeData.has(playerName)) {
-                                                                        JsonObject playerEntry = new JsonObject();
-                                                                        JsonObject weeks = new JsonObject();
-                                                                        weeks.addProperty(currentWeekId, newTime);
-                                                                        playerEntry.add("weeks", weeks);
-                                                                        playerEntry.addProperty("PVD", newTime >= 5);
-                                                                        playtimeData.add(playerName, playerEntry);
-                                                                    } else {
-                                                                        JsonObject playerEntry = playtimeData.getAsJsonObject(playerName);
-                                                                        if (!playerEntry.has("weeks") || playerEntry.get("weeks").isJsonNull()) {
-                                                                            playerEntry.add("weeks", new JsonObject());
-                                                                        }
-                                                                        JsonObject weeks = playerEntry.getAsJsonObject("weeks");
-                                                                        weeks.addProperty(currentWeekId, newTime);
-                                                                        playerEntry.addProperty("PVD", newTime >= 5);
-                                                                    }
 
-                                                                    savePlaytimeData();
+                                                                    // Если игрок онлайн - сразу привязываем запись к его настоящему UUID
+                                                                    ServerPlayerEntity online = ctx.getSource().getServer()
+                                                                            .getPlayerManager().getPlayer(playerName);
+                                                                    PlayerRecord record = online != null
+                                                                            ? core.playtimeData.getOrCreate(online.getUuid(), online.getGameProfile().getName())
+                                                                            : core.playtimeData.getOrCreateByName(playerName);
+                                                                    core.playtimeData.setSeconds(record, newTime * 60L);
+                                                                    core.sessions.discardPending(record.getUuid(), core.tick);
+
+                                                                    core.savePlaytimeData();
                                                                     ctx.getSource().sendFeedback(() -> Text.literal("§6Для " + playerName + " установлено время: " + newTime + " минут."), false);
                                                                     return 1;
-                                                                })
+                                                                }))
                                                         )
                                                 )
                                         )
@@ -494,80 +497,137 @@ public class PvdTime implements ModInitializer {
         );
     }
 
-    private void saveConfig() {
-        File configFile = new File("playtime_logs/config.json");
-        JsonObject config = new JsonObject();
-        config.addProperty("requiredMinutes", requiredMinutes);
-        config.addProperty("afkCheckEnabled", afkCheckEnabled);
-        config.addProperty("afkTimeThreshold", afkTimeThreshold);
-
-        try (FileWriter writer = new FileWriter(configFile)) {
-            gson.toJson(config, writer);
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Подсказки ников для аргумента player: срез индекса по префиксу, без обхода всех игроков
+    private SuggestionProvider<ServerCommandSource> playerNames() {
+        return (ctx, builder) -> {
+            core.names.suggest(builder.getRemaining(), NameIndex.SUGGESTION_LIMIT, builder::suggest);
+            return builder.buildFuture();
+        };
+    }
+
+    // Команда только для чтения: снимок на тике, текст в потоке команд, ответ - снова в потоке сервера
+    private int async(ServerCommandSource source, String key, AsyncCommands.Snapshot snapshot) {
+        return async(source, key, AsyncCommands.NO_CACHE, snapshot);
+    }
+
+    // version - версия данных ответа: пока она та же, текст берется из кэша
+    private int async(ServerCommandSource source, String key, long version, AsyncCommands.Snapshot snapshot) {
+        ServerPlayerEntity player = source.getPlayer();
+        if (player != null && !commands.tryAcquire(player.getUuid(), core.tick)) {
+            source.sendFeedback(() -> Text.literal("§cНе так часто - подождите секунду"), false);
+            return 0;
         }
+        MinecraftServer server = source.getServer();
+        commands.submit(key, version, snapshot, server::execute, text -> source.sendFeedback(() -> Text.literal(text), false));
+        return 1;
     }
 
-    private void loadConfig() {
-        File configFile = new File("playtime_logs/config.json");
-        if (configFile.exists()) {
-            try (FileReader reader = new FileReader(configFile)) {
-                JsonObject config = JsonParser.parseReader(reader).getAsJsonObject();
-
-                if (config.has("requiredMinutes")) {
-                    requiredMinutes = config.get("requiredMinutes").getAsInt();
-                }
-                if (config.has("afkCheckEnabled")) {
-                    afkCheckEnabled = config.get("afkCheckEnabled").getAsBoolean();
-                }
-                if (config.has("afkTimeThreshold")) {
-                    afkTimeThreshold = config.get("afkTimeThreshold").getAsInt();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    // Текст страницы зависит от ее строк и от числа страниц в подписи - оба входят в ключ кэша
+    private int sendLeaderboardPage(ServerCommandSource source, int page) {
+        int pages = PlaytimeViews.pageCount(core.leaderboard);
+        int shownPage = Math.min(page, pages);
+        long version = core.leaderboard.versionOfPages(shownPage - 1, shownPage - 1);
+        return async(source, "page:" + shownPage + ":" + pages, version, () -> {
+            PlaytimeViews.Page snapshot = PlaytimeViews.pageSnapshot(core.leaderboard, shownPage);
+            return () -> PlaytimeViews.leaderboardPage(snapshot);
+        });
+    }
+
+    // range - число дней, можно с "d": 7d, 30d
+    private int sendRange(ServerCommandSource source, String range, int page) {
+        int days;
+        try {
+            days = Integer.parseInt(range.endsWith("d") ? range.substring(0, range.length() - 1) : range);
+        } catch (NumberFormatException e) {
+            days = 0;
+        }
+        if (days < 1 || days > PlaytimeHistory.DAYS) {
+            source.sendFeedback(() -> Text.literal("§cПериод - от 1d до " + PlaytimeHistory.DAYS + "d"), false);
+            return 0;
         }
+        int rangeDays = days;
+        return async(source, "range:" + days + ":" + page, () -> {
+            List<PlaytimeViews.Row> rows = core.history.range(rangeDays);
+            return () -> PlaytimeViews.range(rows, rangeDays, page);     // сортировка - здесь, не на тике
+        });
+    }
+
+    private int sendAllTime(ServerCommandSource source, int count) {
+        return async(source, "alltime:" + count, () -> {
+            List<PlaytimeViews.Row> rows = core.history.allTime(count);
+            return () -> PlaytimeViews.allTime(rows);
+        });
     }
 
-    private boolean checkAFKStatus(ServerPlayerEntity player) {
-        if (!afkCheckEnabled) return false;
-
-        UUID    id      = player.getUuid();
-        long    now     = System.currentTimeMillis();
-        // округлённые координаты
-        double  x       = Math.floor(player.getX());
-        double  y       = Math.floor(player.getY());
-        double  z       = Math.floor(player.getZ());
-
-        // берём предыдущую запись
-        PlayerPosition last = playerPositions.get(id);
-        if (last == null) {
-            // первый раз — запомним позицию, будем считать активным
-            playerPositions.put(id, new PlayerPosition(x, y, z, now));
-            return false;
+    private int sendRank(ServerCommandSource source, String playerName) {
+        PlayerRecord record = core.playtimeData.getByName(playerName);
+        int rank = record != null ? core.leaderboard.rankOf(record) : 0;
+        if (rank == 0) {
+            source.sendFeedback(() -> Text.literal("§cУ игрока " + playerName + " нет времени на этой неделе"), false);
+            return 1;
         }
+        source.sendFeedback(() -> Text.literal("§6" + record.getName() + ": §e" + rank + " место из " + core.leaderboard.size()
+                + " §7(" + PlaytimeViews.formatMinutes(record.getWeekMinutes()) + ")"), false);
+        return 1;
+    }
 
-        // если игрок **двинулся** (координаты изменины) — обновим время последнего движения
-        if (last.x != x || last.y != y || last.z != z) {
-            last.x = x;
-            last.y = y;
-            last.z = z;
-            last.lastMoveTime = now;
-            return false;
+    // Архив потокобезопасен - чтение файла целиком в потоке команд.
+    // Текст кэшируется по версии недели в архиве (меняется при перезаписи); "нет данных" - не кэшируется
+    private int sendArchivedWeek(ServerCommandSource source, String weekId, String title, String noData) {
+        long version = core.archive.version(weekId);
+        if (version < 0) {
+            version = AsyncCommands.NO_CACHE;
         }
+        return async(source, "week:" + weekId + ":" + title, version, () -> () -> {
+            WeekArchive.ArchivedWeek week = core.archive.get(weekId);
+            return week != null ? PlaytimeViews.archivedWeek(week, title) : noData;
+        });
+    }
 
-        // если стоит на месте — проверяем, сколько прошло с последнего движения
-        long elapsed = now - last.lastMoveTime;
-        return elapsed >= TimeUnit.MINUTES.toMillis(afkTimeThreshold);
+    private int sendHistory(ServerCommandSource source, String playerName, int weeks) {
+        return async(source, "history:" + playerName.toLowerCase(Locale.ROOT) + ":" + weeks, () -> {
+            // На тике - только текущая неделя, прошлые читаются из архива в потоке команд
+            PlayerRecord record = core.playtimeData.getByName(playerName);
+            long current = record != null ? core.sessions.liveSeconds(record, core.tick) / 60 : 0;
+            String weekId = core.playtimeData.getWeekId();
+            return () -> PlaytimeViews.history(core.archive, playerName, weekId, current, weeks);
+        });
     }
 
-    // новый класс для хранения без автогенерируемых таймстемпов:
-    private static class PlayerPosition {
-        double x, y, z;
-        long   lastMoveTime;
-        PlayerPosition(double x, double y, double z, long t) {
-            this.x = x; this.y = y; this.z = z; this.lastMoveTime = t;
+    // Снимок текущей недели - на тике, запись файла - в потоке выгрузки
+    private int sendExport(ServerCommandSource source, String formatName, String range) {
+        PlaytimeExport.Format format = PlaytimeExport.Format.parse(formatName);
+        if (format == null) {
+            source.sendFeedback(() -> Text.literal("§cФормат - csv или ndjson"), false);
+            return 0;
         }
+        String currentWeekId = core.playtimeData.getWeekId();
+        List<String> weeks = PlaytimeExport.weeks(range, core.archive, currentWeekId);
+        if (weeks == null) {
+            source.sendFeedback(() -> Text.literal("§cПериод - current, <N>w, all или неделя из архива (например "
+                    + core.getPreviousWeekId() + ")"), false);
+            return 0;
+        }
+        if (export.isRunning()) {
+            source.sendFeedback(() -> Text.literal("§cПредыдущий экспорт еще не закончился"), false);
+            return 0;
+        }
+        PlaytimeExport.CurrentWeek current = weeks.contains(currentWeekId)
+                ? PlaytimeExport.snapshot(core.leaderboard, currentWeekId)
+                : null;
+        String fileName = PlaytimeExport.fileName(range, format, core.clock.millis(), core.clock.getZone());
+        MinecraftServer server = source.getServer();
+        export.start(fileName, format, weeks, current, server::execute,
+                text -> source.sendFeedback(() -> Text.literal(text), false));
+        source.sendFeedback(() -> Text.literal("§6Экспорт начат: " + weeks.size() + " нед. в §e" + fileName), false);
+        return 1;
     }
 
+    private void saveConfig() {
+        config.save(new File("playtime_logs/config.json"));
+    }
+
+    private void loadConfig() {
+        config.load(new File("playtime_logs/config.json"));
+    }
 }
@@ -0,0 +1,131 @@
+package org.example.pvdtime;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.ToLongFunction;
+
+// Статус PVD по событиям вместо ежеминутного обхода онлайна.
+//
+// Статус хранится в самой записи (PlayerRecord.pvd) и пересчитывается только у тех, чье время изменилось:
+// события хранилища кладут запись в dirty, а reconcile() на тике сверяет время с порогом. Если статус
+// перешел порог - меняется запись и вызывается Tags (тег у игрока, если он онлайн). Офлайн-игроку
+// тег ставится по статусу записи при входе.
+//
+// При смене порога пересчитываются только игроки между старым и новым порогом - это срез таблицы лидеров.
+public class PvdTracker implements PlaytimeStore.Listener {
+
+    // Статус игрока изменился; применить к тегу, если он онлайн
+    public interface Tags {
+        void apply(PlayerRecord record, boolean pvd);
+    }
+
+    private final PlaytimeStore store;
+    private final Leaderboard leaderboard;
+    private final Tags tags;
+    private ToLongFunction<UUID> otherSeconds = uuid -> 0;   // время на других серверах (PlaytimeSync)
+    private long thresholdSeconds;
+    private final Set<PlayerRecord> dirty = new HashSet<>();
+    private final ArrayList<PlayerRecord> batch = new ArrayList<>();
+
+    public PvdTracker(PlaytimeStore store, Leaderboard leaderboard, Tags tags, int thresholdMinutes) {
+        this.store = store;
+        this.leaderboard = leaderboard;
+        this.tags = tags;
+        this.thresholdSeconds = thresholdMinutes * 60L;
+    }
+
+    public void setOtherSeconds(ToLongFunction<UUID> otherSeconds) {
+        this.otherSeconds = otherSeconds;
+    }
+
+    public boolean shouldHave(PlayerRecord record) {
+        return record.weekSeconds + otherSeconds.applyAsLong(record.uuid) >= thresholdSeconds;
+    }
+
+    // Время игрока изменилось не через хранилище (ответ агрегатора)
+    public void markDirty(PlayerRecord record) {
+        dirty.add(record);
+    }
+
+    // Один раз при запуске: порог в конфиге мог поменяться, пока сервер был выключен
+    public void checkAll() {
+        for (PlayerRecord record : store.records()) {
+            if (shouldHave(record) != record.pvd) {
+                dirty.add(record);
+            }
+        }
+    }
+
+    // Новый порог: перейти его могли только игроки, у которых время между старым и новым значением
+    public void setThresholdMinutes(int minutes) {
+        long old = thresholdSeconds;
+        thresholdSeconds = minutes * 60L;
+        long low = Math.min(old, thresholdSeconds);
+        long high = Math.max(old, thresholdSeconds);
+        // Таблица по убыванию времени: [первый ниже high, первый ниже low)
+        for (int i = leaderboard.indexBelow(high); i < leaderboard.indexBelow(low); i++) {
+            dirty.add(leaderboard.get(i));
+        }
+        // Игроков без времени на этой неделе в таблице нет - им не хватает до любого порога, кроме тех,
+        // у кого есть время на других серверах (их отмечает вызывающий через markDirty)
+    }
+
+    // На тике: применить переходы статуса. Обычно dirty пуст или в нем несколько игроков.
+    public void reconcile() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        batch.addAll(dirty);
+        dirty.clear();
+        for (int i = 0; i < batch.size(); i++) {
+            PlayerRecord record = batch.get(i);
+            boolean pvd = shouldHave(record);
+            if (pvd != record.pvd) {
+                store.setPvd(record, pvd);
+                tags.apply(record, pvd);
+            }
+        }
+        batch.clear();
+    }
+
+    // ---------- события хранилища ----------
+
+    @Override
+    public void onPlayer(PlayerRecord record) {
+        dirty.add(record);
+    }
+
+    @Override
+    public void onRemove(PlayerRecord record) {
+        dirty.remove(record);
+    }
+
+    @Override
+    public void onAddSeconds(PlayerRecord record, long seconds) {
+        if (!record.pvd) {
+            // Время только растет: снять статус прибавка не может, а получить - только перейдя порог
+            if (record.weekSeconds >= thresholdSeconds - otherSeconds.applyAsLong(record.uuid)) {
+                dirty.add(record);
+            }
+        }
+    }
+
+    @Override
+    public void onSetSeconds(PlayerRecord record, long seconds) {
+        dirty.add(record);
+    }
+
+    // Сброс недели или всех счетчиков снимает статус у всех в самом хранилище; теги онлайн-игроков
+    // снимает вызывающий (одним проходом по онлайну)
+    @Override
+    public void onClearAll() {
+        dirty.clear();
+    }
+
+    @Override
+    public void onStartWeek(String weekId) {
+        dirty.clear();
+    }
+}
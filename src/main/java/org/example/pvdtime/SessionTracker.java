@@ -0,0 +1,159 @@
+package org.example.pvdtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Учет времени по игровым сессиям: вход/выход и переходы в AFK считаются с точностью до тика,
+// в хранилище время попадает целыми секундами. Остаток меньше секунды переносится внутри сессии.
+//
+// Активное время сессии фиксируется в хранилище при выходе, при смене недели и раз в окно (windowTicks).
+// Окна разнесены по тикам: сессия попадает в корзину по тику входа, и за тик обрабатывается
+// только своя корзина - обхода всех игроков раз в минуту больше нет.
+public class SessionTracker {
+
+    public static final int TICKS_PER_SECOND = 20;
+
+    private final PlaytimeStore store;
+    private final int windowTicks;
+    private final Map<UUID, Session> sessions = new HashMap<>();
+    private final ArrayList<Session>[] buckets;
+
+    static final class Session {
+        final UUID uuid;
+        final PlayerRecord record;
+        final int bucket;
+        long accountedTick;     // до какого тика время уже учтено в pendingTicks
+        long pendingTicks;      // активные тики, еще не записанные в хранилище
+        boolean afk;
+
+        Session(UUID uuid, PlayerRecord record, int bucket, long tick) {
+            this.uuid = uuid;
+            this.record = record;
+            this.bucket = bucket;
+            this.accountedTick = tick;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public SessionTracker(PlaytimeStore store, int windowTicks) {
+        this.store = store;
+        this.windowTicks = windowTicks;
+        this.buckets = new ArrayList[windowTicks];
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public void join(UUID uuid, String name, long tick) {
+        Session old = sessions.get(uuid);
+        if (old != null) {
+            leave(uuid, tick);
+        }
+        Session session = new Session(uuid, store.getOrCreate(uuid, name), (int) (tick % windowTicks), tick);
+        sessions.put(uuid, session);
+        if (buckets[session.bucket] == null) {
+            buckets[session.bucket] = new ArrayList<>();
+        }
+        buckets[session.bucket].add(session);
+    }
+
+    public void leave(UUID uuid, long tick) {
+        Session session = sessions.remove(uuid);
+        if (session == null) {
+            return;
+        }
+        commit(session, tick);
+        buckets[session.bucket].remove(session);
+    }
+
+    public boolean isOnline(UUID uuid) {
+        return sessions.containsKey(uuid);
+    }
+
+    public List<UUID> onlineUuids() {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    public boolean isAfk(UUID uuid) {
+        Session session = sessions.get(uuid);
+        return session != null && session.afk;
+    }
+
+    // Переход в AFK и обратно: время до перехода засчитывается по старому состоянию
+    public void setAfk(UUID uuid, boolean afk, long tick) {
+        Session session = sessions.get(uuid);
+        if (session == null || session.afk == afk) {
+            return;
+        }
+        account(session, tick);
+        session.afk = afk;
+    }
+
+    // Вызывается каждый тик: фиксирует только сессии, у которых на этом тике заканчивается окно
+    public void tick(long tick) {
+        ArrayList<Session> bucket = buckets[(int) (tick % windowTicks)];
+        if (bucket == null) {
+            return;
+        }
+        for (int i = 0; i < bucket.size(); i++) {
+            commit(bucket.get(i), tick);
+        }
+    }
+
+    // Граница окна для всех сразу (смена недели, остановка сервера)
+    public void commitAll(long tick) {
+        for (Session session : sessions.values()) {
+            commit(session, tick);
+        }
+    }
+
+    // После set/clear от админа накопленное до этого момента время не должно добавиться сверху
+    public void discardPending(UUID uuid, long tick) {
+        Session session = sessions.get(uuid);
+        if (session != null) {
+            session.accountedTick = tick;
+            session.pendingTicks = 0;
+        }
+    }
+
+    public void discardAllPending(long tick) {
+        for (Session session : sessions.values()) {
+            session.accountedTick = tick;
+            session.pendingTicks = 0;
+        }
+    }
+
+    // Время за неделю вместе с еще не зафиксированной частью текущей сессии
+    public long liveSeconds(PlayerRecord record, long tick) {
+        store.normalize(record);    // запись онлайн-игрока могла пережить сброс счетчиков
+        Session session = sessions.get(record.uuid);
+        if (session == null) {
+            return record.weekSeconds;
+        }
+        long pending = session.pendingTicks;
+        if (!session.afk) {
+            pending += tick - session.accountedTick;
+        }
+        return record.weekSeconds + pending / TICKS_PER_SECOND;
+    }
+
+    private void account(Session session, long tick) {
+        if (!session.afk) {
+            session.pendingTicks += tick - session.accountedTick;
+        }
+        session.accountedTick = tick;
+    }
+
+    private void commit(Session session, long tick) {
+        account(session, tick);
+        long seconds = session.pendingTicks / TICKS_PER_SECOND;
+        if (seconds > 0) {
+            store.addSeconds(session.record, seconds);
+            session.pendingTicks -= seconds * TICKS_PER_SECOND;
+        }
+    }
+}
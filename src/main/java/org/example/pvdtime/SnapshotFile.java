@@ -0,0 +1,222 @@
+package org.example.pvdtime;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+// Файлы снимка хранилища (lastlog). Два формата:
+//
+//   lastlog.bin - основной, компактный:
+//     int magic, byte версия, строка weekId, long сегмент журнала, int количество
+//     записи [количество]: uuid(16) секунды(8) флаги(1) ник, short число чужих недель, [неделя, минуты]
+//   lastlog.json - старый текстовый. Читается потоково через JsonReader: дерево JsonObject на весь файл
+//     не строится, в памяти только сами записи.
+//
+// При загрузке берется более свежий из двух файлов, поэтому переключение формата в конфиге ничего не теряет.
+public final class SnapshotFile {
+
+    private static final int MAGIC = 0x50564453; // "PVDS"
+    private static final byte FORMAT = 1;
+
+    private static final int FLAG_PVD = 1;
+    private static final int FLAG_PROVISIONAL = 2;
+    private static final int FLAG_INDEXED = 4;
+
+    private SnapshotFile() {
+    }
+
+    public static final class Loaded {
+        public final PlaytimeStore store;
+        public final long journalSegment;   // -1 - в снимке нет отметки журнала
+
+        Loaded(PlaytimeStore store, long journalSegment) {
+            this.store = store;
+            this.journalSegment = journalSegment;
+        }
+    }
+
+    // Более свежий из двух файлов; null, если нет ни одного
+    public static Loaded read(Path binaryFile, Path jsonFile, String defaultWeekId) throws IOException {
+        boolean hasBinary = Files.exists(binaryFile);
+        boolean hasJson = Files.exists(jsonFile);
+        if (hasBinary && (!hasJson || Files.getLastModifiedTime(binaryFile).compareTo(Files.getLastModifiedTime(jsonFile)) >= 0)) {
+            return readBinary(binaryFile);
+        }
+        if (hasJson) {
+            return readJson(jsonFile, defaultWeekId);
+        }
+        return null;
+    }
+
+    // ---------- бинарный формат ----------
+
+    public static void writeBinary(PlaytimeSnapshot snapshot, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT);
+        out.writeUTF(snapshot.weekId);
+        out.writeLong(snapshot.journalSegment);
+        out.writeInt(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            out.writeLong(snapshot.uuids[i].getMostSignificantBits());
+            out.writeLong(snapshot.uuids[i].getLeastSignificantBits());
+            out.writeLong(snapshot.seconds[i]);
+            out.writeByte((snapshot.pvd[i] ? FLAG_PVD : 0)
+                    | (snapshot.provisional[i] ? FLAG_PROVISIONAL : 0)
+                    | (snapshot.indexed[i] ? FLAG_INDEXED : 0));
+            out.writeUTF(snapshot.names[i]);
+            Map<String, Long> otherWeeks = snapshot.otherWeeks[i];
+            out.writeShort(otherWeeks == null ? 0 : otherWeeks.size());
+            if (otherWeeks != null) {
+                for (Map.Entry<String, Long> e : otherWeeks.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeLong(e.getValue());
+                }
+            }
+        }
+        out.flush();
+    }
+
+    public static Loaded readBinary(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT) {
+                throw new IOException("Неизвестный формат " + file.getFileName());
+            }
+            String weekId = in.readUTF();
+            long journalSegment = in.readLong();
+            int count = in.readInt();
+
+            PlaytimeStore store = new PlaytimeStore(weekId, count);
+            for (int i = 0; i < count; i++) {
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                long seconds = in.readLong();
+                int flags = in.readByte();
+                PlayerRecord record = new PlayerRecord(uuid, in.readUTF(), (flags & FLAG_PROVISIONAL) != 0);
+                record.weekSeconds = seconds;
+                record.pvd = (flags & FLAG_PVD) != 0;
+                int weeks = in.readShort() & 0xFFFF;
+                if (weeks > 0) {
+                    record.otherWeeks = new TreeMap<>();
+                    for (int w = 0; w < weeks; w++) {
+                        record.otherWeeks.put(in.readUTF(), in.readLong());
+                    }
+                }
+                store.put(record, (flags & FLAG_INDEXED) != 0);
+            }
+            return new Loaded(store, journalSegment);
+        }
+    }
+
+    // ---------- старый JSON ----------
+
+    public static Loaded readJson(Path file, String defaultWeekId) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file)) {
+            return readJson(reader, defaultWeekId);
+        }
+    }
+
+    // Тот же разбор, что PlaytimeStore.fromJson, но по токенам. "#week" записывается первым ключом,
+    // поэтому к моменту чтения игроков неделя уже известна; в старых файлах его нет - берется текущая.
+    public static Loaded readJson(Reader source, String defaultWeekId) throws IOException {
+        JsonReader reader = new JsonReader(source);
+        String weekId = defaultWeekId;
+        long journalSegment = -1;
+        PlaytimeStore store = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (key.equals(PlaytimeSnapshot.WEEK_KEY)) {
+                weekId = reader.nextString();
+                continue;
+            }
+            if (key.equals(PlaytimeJournal.SNAPSHOT_KEY)) {
+                journalSegment = reader.nextLong();
+                continue;
+            }
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            if (store == null) {
+                store = new PlaytimeStore(weekId);
+            }
+            readEntry(reader, key, store);
+        }
+        reader.endObject();
+        return new Loaded(store != null ? store : new PlaytimeStore(weekId), journalSegment);
+    }
+
+    private static void readEntry(JsonReader reader, String key, PlaytimeStore store) throws IOException {
+        String weekId = store.getWeekId();
+        String name = null;
+        String uuid = null;
+        boolean pvd = false;
+        long seconds = 0;
+        long exactSeconds = -1;
+        Map<String, Long> otherWeeks = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "weeks":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String week = reader.nextName();
+                        long minutes = reader.nextLong();
+                        if (week.equals(weekId)) {
+                            seconds = minutes * 60;
+                        } else {
+                            if (otherWeeks == null) {
+                                otherWeeks = new TreeMap<>();
+                            }
+                            otherWeeks.put(week, minutes);
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "weekSeconds":
+                    // Точное время в секундах (в "weeks" для совместимости лежат целые минуты)
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals(weekId)) {
+                            exactSeconds = reader.nextLong();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "PVD":
+                    pvd = reader.nextBoolean();
+                    break;
+                case "uuid":
+                    uuid = reader.nextString();
+                    break;
+                case "name":
+                    name = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        boolean indexed = name == null;
+        if (name == null) {
+            name = key;
+        }
+        boolean provisional = uuid == null;
+        PlayerRecord record = new PlayerRecord(provisional ? PlaytimeStore.offlineUuid(name) : UUID.fromString(uuid), name, provisional);
+        record.weekSeconds = exactSeconds >= 0 ? exactSeconds : seconds;
+        record.pvd = pvd;
+        record.otherWeeks = otherWeeks;
+        store.put(record, indexed);
+    }
+}
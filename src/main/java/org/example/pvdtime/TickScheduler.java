@@ -0,0 +1,119 @@
+package org.example.pvdtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Планировщик работы мода по счетчику тиков, без опроса часов на каждом тике.
+//
+// every()  - периодическая задача раз в period тиков; разные задачи разносятся по смещению,
+//            чтобы сохранение, проверки и т.п. не совпадали в одном тике.
+// spread() - работа по каждому элементу списка (обычно по онлайн-игрокам), размазанная по периоду:
+//            за тик обрабатывается примерно size/period элементов.
+//
+// У размазанной работы есть бюджет времени на тик: если он исчерпан, остаток переносится
+// на следующий тик (минимум один элемент за тик обрабатывается всегда).
+public class TickScheduler {
+
+    public interface Job {
+        void run(long tick);
+    }
+
+    private final List<Periodic> periodic = new ArrayList<>();
+    private final List<Spread<?>> spread = new ArrayList<>();
+    private long budgetNanos;
+    private long deferredTicks;     // сколько раз размазанная работа не уложилась в бюджет
+
+    public TickScheduler(int budgetMicros) {
+        setBudgetMicros(budgetMicros);
+    }
+
+    public void setBudgetMicros(int budgetMicros) {
+        this.budgetNanos = budgetMicros * 1000L;
+    }
+
+    public long getDeferredTicks() {
+        return deferredTicks;
+    }
+
+    public void every(int periodTicks, int offsetTicks, Job job) {
+        periodic.add(new Periodic(periodTicks, offsetTicks % periodTicks, job));
+    }
+
+    // source вызывается в начале каждого цикла; список на время цикла не должен меняться
+    public <T> void spread(int periodTicks, Supplier<List<T>> source, Consumer<T> work) {
+        spread.add(new Spread<>(periodTicks, source, work));
+    }
+
+    public void tick(long tick) {
+        long start = System.nanoTime();
+        for (int i = 0; i < periodic.size(); i++) {
+            Periodic job = periodic.get(i);
+            if (tick % job.period == job.offset) {
+                job.job.run(tick);
+            }
+        }
+
+        long deadline = start + budgetNanos;
+        boolean deferred = false;
+        for (int i = 0; i < spread.size(); i++) {
+            deferred |= !spread.get(i).tick(deadline);
+        }
+        if (deferred) {
+            deferredTicks++;
+        }
+    }
+
+    private static final class Periodic {
+        final int period;
+        final int offset;
+        final Job job;
+
+        Periodic(int period, int offset, Job job) {
+            this.period = period;
+            this.offset = offset;
+            this.job = job;
+        }
+    }
+
+    private static final class Spread<T> {
+        final int period;
+        final Supplier<List<T>> source;
+        final Consumer<T> work;
+        List<T> items = Collections.emptyList();
+        int cursor;
+        int phase;      // сколько тиков прошло от начала цикла
+
+        Spread(int period, Supplier<List<T>> source, Consumer<T> work) {
+            this.period = period;
+            this.source = source;
+            this.work = work;
+        }
+
+        // false - не успели сделать положенное на этот тик, остаток перейдет на следующий
+        boolean tick(long deadline) {
+            if (phase >= period && cursor >= items.size()) {
+                phase = 0;
+            }
+            if (phase == 0) {
+                items = source.get();
+                cursor = 0;
+            }
+            if (phase < period) {
+                phase++;
+            }
+
+            int size = items.size();
+            int target = (int) ((long) size * phase / period);
+            while (cursor < target) {
+                work.accept(items.get(cursor++));
+                if (cursor < target && System.nanoTime() > deadline) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
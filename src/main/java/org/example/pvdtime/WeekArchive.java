@@ -0,0 +1,309 @@
+package org.example.pvdtime;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// Архив прошлых недель. Каждая неделя - отдельный бинарный файл archive_<неделя>.bin:
+//
+//   int magic, byte версия, строка weekId, int количество, int длина блока ников
+//   записи [количество] по убыванию времени: uuid(16) секунды(8) pvd(1) смещение ника(4) длина ника(2)
+//   индекс по нику [количество]: номер записи, отсортировано по нику без учета регистра
+//   блок ников в UTF-8
+//
+// Файл отображается в память, поиск игрока - бинарный поиск по индексу, без чтения всего файла.
+// Открытые недели держатся в LRU-кэше. Старые archive_<неделя>.json конвертируются при первом обращении.
+public class WeekArchive {
+
+    private static final int MAGIC = 0x50564441; // "PVDA"
+    private static final byte FORMAT = 1;
+    private static final int RECORD_BYTES = 16 + 8 + 1 + 4 + 2;
+
+    private final Path directory;
+    private final int cacheSize;
+    private final TreeSet<String> weeks = new TreeSet<>();
+    private final Map<String, ArchivedWeek> cache;
+    private final Map<String, Long> versions = new HashMap<>();    // номер последней записи недели
+    private long writes;
+
+    public WeekArchive(Path directory, int cacheSize) {
+        this.directory = directory;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ArchivedWeek> eldest) {
+                return size() > WeekArchive.this.cacheSize;
+            }
+        };
+        scan();
+    }
+
+    // Список недель берется из имен файлов, сами файлы не читаются
+    private synchronized void scan() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "archive_*.{bin,json}")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                weeks.add(name.substring("archive_".length(), name.lastIndexOf('.')));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized List<String> weeks() {
+        return new ArrayList<>(weeks);
+    }
+
+    // Последние count недель, от новых к старым
+    public synchronized List<String> lastWeeks(int count) {
+        List<String> result = new ArrayList<>(Math.min(count, weeks.size()));
+        for (String week : weeks.descendingSet()) {
+            if (result.size() >= count) break;
+            result.add(week);
+        }
+        return result;
+    }
+
+    public synchronized int weekCount() {
+        return weeks.size();
+    }
+
+    public synchronized boolean has(String weekId) {
+        return weeks.contains(weekId);
+    }
+
+    // Меняется при каждой записи недели (смена недели, recover, конвертация старого формата);
+    // -1 - такой недели нет
+    public synchronized long version(String weekId) {
+        if (!weeks.contains(weekId)) {
+            return -1;
+        }
+        Long version = versions.get(weekId);
+        return version != null ? version : 0;
+    }
+
+    // null, если такой недели нет
+    public synchronized ArchivedWeek get(String weekId) throws IOException {
+        ArchivedWeek week = cache.get(weekId);
+        if (week != null) {
+            return week;
+        }
+        if (!weeks.contains(weekId)) {
+            return null;
+        }
+
+        Path bin = binFile(weekId);
+        if (!Files.exists(bin)) {
+            Path json = directory.resolve("archive_" + weekId + ".json");
+            if (!Files.exists(json)) {
+                weeks.remove(weekId);
+                return null;
+            }
+            convertLegacy(weekId, json);
+        }
+
+        try (FileChannel channel = FileChannel.open(bin, StandardOpenOption.READ)) {
+            week = new ArchivedWeek(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        cache.put(weekId, week);
+        return week;
+    }
+
+    public void write(PlaytimeSnapshot snapshot) throws IOException {
+        long start = System.nanoTime();
+        List<Integer> included = new ArrayList<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.seconds[i] > 0 || snapshot.pvd[i]) {
+                included.add(i);
+            }
+        }
+        int[] rows = new int[included.size()];
+        for (int i = 0; i < rows.length; i++) rows[i] = included.get(i);
+        write(snapshot.weekId, rows, snapshot.uuids, snapshot.names, snapshot.seconds, snapshot.pvd);
+        PvdMetrics.ARCHIVE_WRITE.observeSince(start);
+    }
+
+    private void write(String weekId, int[] rows, UUID[] uuids, String[] names, long[] seconds, boolean[] pvd) throws IOException {
+        int count = rows.length;
+
+        // Порядок записей - по убыванию времени, чтобы список недели читался подряд
+        Integer[] byTime = new Integer[count];
+        for (int i = 0; i < count; i++) byTime[i] = rows[i];
+        Arrays.sort(byTime, (a, b) -> Long.compare(seconds[b], seconds[a]));
+
+        byte[][] nameBytes = new byte[count][];
+        int namesLength = 0;
+        for (int i = 0; i < count; i++) {
+            nameBytes[i] = names[byTime[i]].getBytes(StandardCharsets.UTF_8);
+            namesLength += nameBytes[i].length;
+        }
+
+        Integer[] byName = new Integer[count];
+        for (int i = 0; i < count; i++) byName[i] = i;
+        Arrays.sort(byName, (a, b) -> names[byTime[a]].compareToIgnoreCase(names[byTime[b]]));
+
+        int total = namesLength;
+        long written = PlaytimeWriter.writeBinaryAtomically(binFile(weekId), stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT);
+            out.writeUTF(weekId);
+            out.writeInt(count);
+            out.writeInt(total);
+
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                int row = byTime[i];
+                out.writeLong(uuids[row].getMostSignificantBits());
+                out.writeLong(uuids[row].getLeastSignificantBits());
+                out.writeLong(seconds[row]);
+                out.writeByte(pvd[row] ? 1 : 0);
+                out.writeInt(offset);
+                out.writeShort(nameBytes[i].length);
+                offset += nameBytes[i].length;
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(byName[i]);
+            }
+            for (byte[] bytes : nameBytes) {
+                out.write(bytes);
+            }
+            out.flush();
+        });
+
+        PvdMetrics.BYTES_ARCHIVE.add(written);
+
+        synchronized (this) {
+            weeks.add(weekId);
+            cache.remove(weekId);
+            versions.put(weekId, ++writes);
+        }
+    }
+
+    // Разовая конвертация старого формата: { ник: { weeks: { неделя: минуты }, PVD } }
+    private void convertLegacy(String weekId, Path json) throws IOException {
+        JsonObject root;
+        try (Reader reader = Files.newBufferedReader(json)) {
+            root = JsonParser.parseReader(reader).getAsJsonObject();
+        }
+
+        int count = root.size();
+        UUID[] uuids = new UUID[count];
+        String[] names = new String[count];
+        long[] seconds = new long[count];
+        boolean[] pvd = new boolean[count];
+        int[] rows = new int[count];
+        int i = 0;
+        for (Map.Entry<String, JsonElement> e : root.entrySet()) {
+            JsonObject entry = e.getValue().getAsJsonObject();
+            names[i] = e.getKey();
+            uuids[i] = entry.has("uuid") ? UUID.fromString(entry.get("uuid").getAsString()) : PlaytimeStore.offlineUuid(e.getKey());
+            pvd[i] = entry.has("PVD") && entry.get("PVD").getAsBoolean();
+            // В старых архивах под ключом недели иногда лежала соседняя неделя - берем то, что есть
+            if (entry.has("weeks")) {
+                for (Map.Entry<String, JsonElement> w : entry.getAsJsonObject("weeks").entrySet()) {
+                    seconds[i] += w.getValue().getAsLong() * 60;
+                }
+            }
+            rows[i] = i;
+            i++;
+        }
+        write(weekId, rows, uuids, names, seconds, pvd);
+        System.out.println("[PVDTime] Архив недели " + weekId + " сконвертирован в бинарный формат");
+    }
+
+    private Path binFile(String weekId) {
+        return directory.resolve("archive_" + weekId + ".bin");
+    }
+
+    // Одна неделя архива поверх отображенного в память файла. Данные читаются по мере обращения.
+    public static final class ArchivedWeek {
+
+        private final ByteBuffer data;
+        private final String weekId;
+        private final int count;
+        private final int recordsStart;
+        private final int indexStart;
+        private final int namesStart;
+
+        ArchivedWeek(MappedByteBuffer data) throws IOException {
+            this.data = data;
+            if (data.getInt(0) != MAGIC || data.get(4) != FORMAT) {
+                throw new IOException("Неизвестный формат архива");
+            }
+            int weekIdLength = data.getShort(5) & 0xFFFF;
+            byte[] weekIdBytes = new byte[weekIdLength];
+            data.get(7, weekIdBytes);
+            this.weekId = new String(weekIdBytes, StandardCharsets.UTF_8);
+            int position = 7 + weekIdLength;
+            this.count = data.getInt(position);
+            this.recordsStart = position + 8;
+            this.indexStart = recordsStart + count * RECORD_BYTES;
+            this.namesStart = indexStart + count * 4;
+        }
+
+        public String getWeekId() {
+            return weekId;
+        }
+
+        // Записи упорядочены по убыванию времени: 0 - лидер недели
+        public int size() {
+            return count;
+        }
+
+        public UUID uuid(int index) {
+            int at = recordsStart + index * RECORD_BYTES;
+            return new UUID(data.getLong(at), data.getLong(at + 8));
+        }
+
+        public long seconds(int index) {
+            return data.getLong(recordsStart + index * RECORD_BYTES + 16);
+        }
+
+        public boolean pvd(int index) {
+            return data.get(recordsStart + index * RECORD_BYTES + 24) != 0;
+        }
+
+        public String name(int index) {
+            int at = recordsStart + index * RECORD_BYTES + 25;
+            byte[] bytes = new byte[data.getShort(at + 4) & 0xFFFF];
+            data.get(namesStart + data.getInt(at), bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Номер записи игрока или -1. Бинарный поиск по индексу ников.
+        public int find(String name) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int index = data.getInt(indexStart + middle * 4);
+                int cmp = name(index).compareToIgnoreCase(name);
+                if (cmp < 0) {
+                    low = middle + 1;
+                } else if (cmp > 0) {
+                    high = middle - 1;
+                } else {
+                    return index;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.pvdtime;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAdjusters;
+
+// Смена недели в два этапа.
+// На тике - снимок счетчиков старой недели, маркер rollover.json с ним и только потом переход хранилища
+// на новую неделю. Маркер пишется сразу, а не в потоке записи: сохранения там сливаются (уже стоящая
+// в очереди запись lastlog возьмет самый новый снимок), а players.dat меняется на месте - так что
+// новая неделя может оказаться на диске раньше любой задачи, поставленной после нее.
+// Дальше в потоке записи: бинарный архив и удаление маркера.
+// Если сервер упал посередине, при запуске recover() дописывает архив по маркеру; повторный запуск безопасен.
+public class WeekRollover {
+
+    private final Gson gson = new Gson();
+    private final Path marker;
+    private final WeekArchive archive;
+    private final PlaytimeWriter writer;
+
+    public WeekRollover(Path marker, WeekArchive archive, PlaytimeWriter writer) {
+        this.marker = marker;
+        this.archive = archive;
+        this.writer = writer;
+    }
+
+    // Вызывается на тике. Активное время сессий к этому моменту уже должно быть зафиксировано.
+    // false - маркер записать не удалось, хранилище осталось на старой неделе (повторить позже)
+    public boolean rollover(PlaytimeStore store, String newWeekId) {
+        PlaytimeSnapshot previous = store.snapshot();
+        try {
+            PlaytimeWriter.writeAtomically(marker, out -> gson.toJson(previous.toJson(), out));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        store.startWeek(newWeekId);
+        writer.execute(() -> archive(previous));
+        return true;
+    }
+
+    private void archive(PlaytimeSnapshot snapshot) {
+        try {
+            archive.write(snapshot);
+            Files.deleteIfExists(marker);
+            System.out.println("[PVDTime] Архив недели " + snapshot.getWeekId() + " создан");
+        } catch (IOException e) {
+            // Маркер остался на диске - архив будет дописан при следующем запуске
+            e.printStackTrace();
+        }
+    }
+
+    // При запуске, до загрузки lastlog.json: доводит до конца прерванную смену недели
+    public void recover() {
+        if (!Files.exists(marker)) {
+            return;
+        }
+        try {
+            // Маркер пишется со своим "#week", поэтому неделя по умолчанию здесь не используется
+            PlaytimeStore store = SnapshotFile.readJson(marker, null).store;
+            String weekId = store.getWeekId();
+            archive.write(store.snapshot());
+            Files.delete(marker);
+            System.out.println("[PVDTime] Архив недели " + weekId + " восстановлен после прерванной смены недели");
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Момент начала следующей недели (понедельник 00:00 по времени сервера)
+    public static long nextWeekStartMillis(long nowMillis, ZoneId zone) {
+        ZonedDateTime now = ZonedDateTime.ofInstant(Instant.ofEpochMilli(nowMillis), zone);
+        return now.toLocalDate()
+                .with(TemporalAdjusters.next(DayOfWeek.MONDAY))
+                .atStartOfDay(zone)
+                .toInstant()
+                .toEpochMilli();
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.pvdtime.mixin;
+
+import net.minecraft.network.packet.c2s.play.ChatCommandSignedC2SPacket;
+import net.minecraft.network.packet.c2s.play.CommandExecutionC2SPacket;
+import net.minecraft.network.packet.c2s.play.HandSwingC2SPacket;
+import net.minecraft.network.packet.c2s.play.PlayerMoveC2SPacket;
+import net.minecraft.server.network.ServerPlayNetworkHandler;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.example.pvdtime.PvdTime;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+// Сигналы активности для AFK прямо из пакетов игрока.
+// Обработчики сначала вызываются в сетевом потоке и перекидывают пакет на поток сервера,
+// поэтому учитываем только вызов на потоке сервера.
+@Mixin(ServerPlayNetworkHandler.class)
+public abstract class ServerPlayNetworkHandlerMixin {
+
+    @Shadow
+    public ServerPlayerEntity player;
+
+    @Inject(method = "onPlayerMove", at = @At("HEAD"))
+    private void pvdtime$onPlayerMove(PlayerMoveC2SPacket packet, CallbackInfo ci) {
+        if (player.getServer() != null && player.getServer().isOnThread()) {
+            PvdTime.onPlayerMove(player, packet);
+        }
+    }
+
+    @Inject(method = "onHandSwing", at = @At("HEAD"))
+    private void pvdtime$onHandSwing(HandSwingC2SPacket packet, CallbackInfo ci) {
+        if (player.getServer() != null && player.getServer().isOnThread()) {
+            PvdTime.onPlayerActivity(player);
+        }
+    }
+
+    @Inject(method = "onCommandExecution", at = @At("HEAD"))
+    private void pvdtime$onCommandExecution(CommandExecutionC2SPacket packet, CallbackInfo ci) {
+        if (player.getServer() != null && player.getServer().isOnThread()) {
+            PvdTime.onPlayerActivity(player);
+        }
+    }
+
+    @Inject(method = "onChatCommandSigned", at = @At("HEAD"))
+    private void pvdtime$onChatCommandSigned(ChatCommandSignedC2SPacket packet, CallbackInfo ci) {
+        if (player.getServer() != null && player.getServer().isOnThread()) {
+            PvdTime.onPlayerActivity(player);
+        }
+    }
+}